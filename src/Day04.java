@@ -2,76 +2,252 @@ import util.Lines;
 import util.Terminal;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
 public class Day04 {
     private static final char ROLL = '@';
 
+    private static final int MAX_NEIGHBOURS = 4;
+
+    // Grids with fewer cells than this are peeled on a single thread
+    private static final long PARALLEL_THRESHOLD = 1L << 20;
+
     public static void main() throws IOException {
         var terminal = Terminal.get();
         var path = Path.of("input04.txt");
 
-        var map = Lines.asCharMatrix(path);
-        var positions = new HashSet<Position>();
+        var grid = Grid.parse(Lines.asCharMatrix(path));
+
+        var part1 = grid.removable();
+        var part2 = grid.cells() < PARALLEL_THRESHOLD ? grid.cascade() : grid.parallelCascade();
+
+        terminal.println(part1);
+        terminal.println(part2);
+    }
+
+    /**
+     * Roll grid padded with an empty border, so every roll has eight addressable neighbours.
+     * Each cell keeps the number of neighbouring rolls; a roll is removed when that count
+     * drops below {@link #MAX_NEIGHBOURS}. Removal only lowers counts, so the set of removed
+     * rolls does not depend on the order in which the cascade visits them.
+     */
+    static class Grid {
+        private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+        private final int rows;
+
+        private final int cols;
+
+        private final int width;
+
+        private final boolean[] rolls;
+
+        private final int[] offsets;
+
+        private Grid(int rows, int cols, boolean[] rolls) {
+            this.rows = rows;
+            this.cols = cols;
+            this.width = cols + 2;
+            this.rolls = rolls;
+            this.offsets = new int[]{
+                    -width - 1, -width, -width + 1,
+                    -1, 1,
+                    width - 1, width, width + 1
+            };
+        }
 
-        for (int row = 0; row < map.length; row++) {
-            for (int col = 0; col < map[row].length; col++) {
-                if (map[row][col] == ROLL) {
-                    positions.add(new Position(row, col));
+        public static Grid parse(char[][] map) {
+            var rows = map.length;
+            var cols = rows == 0 ? 0 : map[0].length;
+            var width = cols + 2;
+            var rolls = new boolean[Math.multiplyExact(rows + 2, width)];
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < map[row].length; col++) {
+                    rolls[(row + 1) * width + col + 1] = map[row][col] == ROLL;
                 }
             }
+            return new Grid(rows, cols, rolls);
         }
 
-        // Find all rolls that can be removed initially
-        var rollsToRemove = positions.parallelStream()
-                .filter(p -> removable(p, positions))
-                .collect(Collectors.toSet());
-        var part1 = rollsToRemove.size();
-        var part2 = 0;
-        while (!rollsToRemove.isEmpty()) {
-            positions.removeAll(rollsToRemove);
-            part2 += rollsToRemove.size();
-            // Check neighbours of removed rolls for further removals
-            rollsToRemove = rollsToRemove.parallelStream()
-                    .flatMap(Position::neighbours)
-                    .filter(p -> removable(p, positions))
-                    .collect(Collectors.toSet());
+        public long cells() {
+            return (long) rows * cols;
         }
 
-        terminal.println(part1);
-        terminal.println(part2);
-    }
+        public int removable() {
+            var counts = counts();
+            var removable = 0;
+            for (int row = 1; row <= rows; row++) {
+                for (int i = row * width + 1, end = i + cols; i < end; i++) {
+                    if (rolls[i] && counts[i] < MAX_NEIGHBOURS) {
+                        removable++;
+                    }
+                }
+            }
+            return removable;
+        }
+
+        public int cascade() {
+            var counts = counts();
+            var stack = new IntStack();
+            for (int row = 1; row <= rows; row++) {
+                for (int i = row * width + 1, end = i + cols; i < end; i++) {
+                    if (rolls[i] && counts[i] < MAX_NEIGHBOURS) {
+                        stack.push(i);
+                    }
+                }
+            }
+            var removed = 0;
+            while (!stack.isEmpty()) {
+                var cell = stack.pop();
+                removed++;
+                for (var offset : offsets) {
+                    var neighbour = cell + offset;
+                    // Only the decrement from MAX_NEIGHBOURS enqueues, so every roll is removed once
+                    if (rolls[neighbour] && counts[neighbour]-- == MAX_NEIGHBOURS) {
+                        stack.push(neighbour);
+                    }
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Same cascade as {@link #cascade()}, with the grid split into row stripes peeled
+         * concurrently. Counts on stripe boundaries are shared, so they are decremented with
+         * a compare-and-set; the worker that takes a count from
+         * {@link #MAX_NEIGHBOURS} down claims the roll. Rolls claimed in a neighbouring
+         * stripe are handed to that stripe's worker for the next round.
+         */
+        public int parallelCascade() {
+            var counts = counts();
+            var stripes = Math.max(1, Math.min(rows, Runtime.getRuntime().availableProcessors() * 4));
+            var workers = IntStream.range(0, stripes)
+                    .mapToObj(s -> new Stripe(1 + (int) ((long) rows * s / stripes), 1 + (int) ((long) rows * (s + 1) / stripes)))
+                    .toArray(Stripe[]::new);
+
+            Arrays.stream(workers).parallel().forEach(stripe -> stripe.seed(counts));
+            var removed = 0;
+            var pending = true;
+            while (pending) {
+                removed += Arrays.stream(workers).parallel().mapToInt(stripe -> stripe.peel(counts)).sum();
+                pending = false;
+                for (int s = 0; s < stripes; s++) {
+                    var stripe = workers[s];
+                    if (s > 0) stripe.receive(workers[s - 1].down);
+                    if (s < stripes - 1) stripe.receive(workers[s + 1].up);
+                    pending |= !stripe.frontier.isEmpty();
+                }
+                for (var stripe : workers) {
+                    stripe.up.clear();
+                    stripe.down.clear();
+                }
+            }
+            return removed;
+        }
 
-    private static boolean removable(Position p, Set<Position> positions) {
-        if (!positions.contains(p)) return false;
-        int count = 0;
-        for (int[] offset : OFFSETS) {
-            var neighbor = p.add(offset);
-            if (positions.contains(neighbor)) {
-                count++;
+        // CAS loop rather than getAndAdd: the byte getAndAdd intrinsic may return an unnormalised value
+        private static byte decrement(byte[] counts, int i) {
+            byte count;
+            do {
+                count = (byte) COUNTS.getVolatile(counts, i);
+            } while (!COUNTS.compareAndSet(counts, i, count, (byte) (count - 1)));
+            return count;
+        }
+
+        private byte[] counts() {
+            var counts = new byte[rolls.length];
+            IntStream.rangeClosed(1, rows).parallel().forEach(row -> {
+                for (int i = row * width + 1, end = i + cols; i < end; i++) {
+                    if (!rolls[i]) continue;
+                    byte count = 0;
+                    for (var offset : offsets) {
+                        if (rolls[i + offset]) count++;
+                    }
+                    counts[i] = count;
+                }
+            });
+            return counts;
+        }
+
+        private class Stripe {
+            private final int first;
+
+            private final int last;
+
+            private final IntStack frontier = new IntStack();
+
+            private final IntStack up = new IntStack();
+
+            private final IntStack down = new IntStack();
+
+            Stripe(int fromRow, int toRow) {
+                this.first = fromRow * width;
+                this.last = toRow * width;
+            }
+
+            void seed(byte[] counts) {
+                for (int i = first; i < last; i++) {
+                    if (rolls[i] && counts[i] < MAX_NEIGHBOURS) {
+                        frontier.push(i);
+                    }
+                }
+            }
+
+            int peel(byte[] counts) {
+                var removed = 0;
+                while (!frontier.isEmpty()) {
+                    var cell = frontier.pop();
+                    removed++;
+                    for (var offset : offsets) {
+                        var neighbour = cell + offset;
+                        if (rolls[neighbour] && decrement(counts, neighbour) == MAX_NEIGHBOURS) {
+                            if (neighbour < first) {
+                                up.push(neighbour);
+                            } else if (neighbour >= last) {
+                                down.push(neighbour);
+                            } else {
+                                frontier.push(neighbour);
+                            }
+                        }
+                    }
+                }
+                return removed;
+            }
+
+            void receive(IntStack handoff) {
+                for (int i = 0; i < handoff.size; i++) {
+                    frontier.push(handoff.values[i]);
+                }
             }
         }
-        return count < 4;
     }
 
-    private static final int[][] OFFSETS = {
-            {-1, -1}, {-1, 0}, {-1, 1},
-            {0, -1}, {0, 1},
-            {1, -1}, {1, 0}, {1, 1}
-    };
+    private static class IntStack {
+        private int[] values = new int[16];
+
+        private int size;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
 
-    record Position(int row, int col) {
-        public Stream<Position> neighbours() {
-            return Arrays.stream(OFFSETS).map(this::add);
+        boolean isEmpty() {
+            return size == 0;
         }
 
-        public Position add(int[] offset) {
-            return new Position(row + offset[0], col + offset[1]);
+        void clear() {
+            size = 0;
         }
     }
 }
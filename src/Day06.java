@@ -1,87 +1,515 @@
-import util.Lines;
-import util.Numbers;
 import util.Terminal;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.regex.MatchResult;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Day06 {
-    private static final char ADD = '+';
-    private static final char MUL = '*';
+    private static final byte ADD = '+';
+    private static final byte MUL = '*';
+
+    // Worksheets larger than this are split into column groups evaluated in parallel
+    private static final long PARALLEL_THRESHOLD = 1L << 22;
 
     public static void main() throws IOException {
         var terminal = Terminal.get();
         var path = Path.of("input06.txt");
-        var lines = new LinkedList<>(Lines.asStrings(path));
-        var operations = Pattern.compile("[+*]\\s*(?=\\s|$)")
-                .matcher(lines.removeLast())
-                .results()
-                .map(MatchResult::group)
-                .toArray(String[]::new);
-
-        terminal.println(part1(lines, operations));
-        terminal.println(part2(lines, operations));
+
+        Result result;
+        if (Files.size(path) < PARALLEL_THRESHOLD) {
+            var worksheet = new Worksheet(Arithmetic.EXACT);
+            try (var input = Files.newInputStream(path)) {
+                worksheet.accept(input);
+            }
+            result = worksheet.result();
+        } else {
+            result = ParallelWorksheet.evaluate(path, Arithmetic.EXACT);
+        }
+
+        terminal.println(result.part1());
+        terminal.println(result.part2());
     }
 
-    private static long part1(List<String> numbers, String[] operations) {
-        var operands = Numbers.asIntArrays(numbers);
+    record Result(BigInteger part1, BigInteger part2) {
+    }
+
+    /**
+     * Evaluates the worksheet in a single pass over its bytes, keeping O(columns) state.
+     * For every column it accumulates the sum and the product of the horizontal numbers that
+     * start there, and the vertical number formed by its digits read top to bottom. Problems
+     * are only known once the operator row is read, so both interpretations are folded at the end.
+     */
+    static class Worksheet {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final Arithmetic arithmetic;
+
+        private final Columns sums;
+
+        private final Columns products;
+
+        private final Columns verticals;
+
+        private byte[] operations = new byte[0];
+
+        private int width;
+
+        private int col;
+
+        private int numberStart = -1;
+
+        private final Accumulator number;
+
+        Worksheet(Arithmetic arithmetic) {
+            this.arithmetic = arithmetic;
+            this.sums = new Columns(arithmetic);
+            this.products = new Columns(arithmetic);
+            this.verticals = new Columns(arithmetic);
+            this.number = new Accumulator(arithmetic);
+        }
 
-        var output = initializeOutput(operations);
-        for (var operand : operands) {
-            for (int i = 0; i < operations.length; i++) {
-                switch (operations[i].charAt(0)) {
-                    case ADD -> output[i] += operand[i];
-                    case MUL -> output[i] *= operand[i];
-                    default -> throw new IllegalArgumentException("Unknown operation: " + operations[i]);
+        public void accept(InputStream input) throws IOException {
+            var buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    accept(buffer[i]);
                 }
             }
+            endNumber();
         }
-        return Arrays.stream(output).sum();
-    }
 
-    private static long part2(List<String> numbers, String[] operations) {
-        var matrix = numbers.stream().map(String::toCharArray).toArray(char[][]::new);
-        var rows = matrix.length;
-        var cols = matrix[0].length;
+        /**
+         * Accepts the bytes {@code [from, to)} of {@code buffer} as one row.
+         */
+        public void accept(ByteBuffer buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                accept(buffer.get(i));
+            }
+            accept((byte) '\n');
+        }
+
+        private void accept(byte b) {
+            switch (b) {
+                case '\n' -> {
+                    endNumber();
+                    col = 0;
+                }
+                case '\r' -> {
+                }
+                default -> {
+                    ensureWidth(col + 1);
+                    if (b >= '0' && b <= '9') {
+                        if (numberStart < 0) {
+                            numberStart = col;
+                            number.reset(0);
+                        }
+                        number.multiply(10);
+                        number.add(b - '0');
+                        verticals.append(col, b - '0');
+                    } else {
+                        endNumber();
+                        if (b == ADD || b == MUL) {
+                            operations[col] = b;
+                        }
+                    }
+                    col++;
+                }
+            }
+        }
 
-        var operands = new long[cols];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                if (matrix[i][j] == ' ') continue;
-                operands[j] = operands[j] * 10 + (matrix[i][j] - '0');
+        private void endNumber() {
+            if (numberStart >= 0) {
+                sums.add(numberStart, number);
+                products.multiply(numberStart, number);
+                numberStart = -1;
             }
         }
 
-        var output = initializeOutput(operations);
-        for (int i = 0, j = 0; i < operations.length; i++) {
-            int operandsCount = operations[i].length();
-            for (int k = 0; k < operandsCount; k++) {
-                switch (operations[i].charAt(0)) {
-                    case ADD -> output[i] += operands[j + k];
-                    case MUL -> output[i] *= operands[j + k];
-                    default -> throw new IllegalArgumentException("Unknown operation: " + operations[i]);
+        private void ensureWidth(int columns) {
+            if (columns <= width) return;
+            if (columns > operations.length) {
+                var capacity = Math.max(columns, operations.length << 1);
+                sums.resize(capacity);
+                products.resize(capacity);
+                verticals.resize(capacity);
+                operations = Arrays.copyOf(operations, capacity);
+            }
+            products.fill(width, columns, 1L);
+            width = columns;
+        }
+
+        public Result result() {
+            return new Result(part1(), part2());
+        }
+
+        /**
+         * Each row holds one number per problem, which starts somewhere in the problem's columns.
+         */
+        public BigInteger part1() {
+            var total = new Accumulator(arithmetic);
+            var output = new Accumulator(arithmetic);
+            for (int start = nextOperation(0), end; start < width; start = end) {
+                end = nextOperation(start + 1);
+                var operation = operations[start];
+                output.reset(initialValue(operation));
+                for (int i = start; i < end; i++) {
+                    switch (operation) {
+                        case ADD -> output.add(sums, i);
+                        case MUL -> output.multiply(products, i);
+                        default -> throw new IllegalArgumentException("Unknown operation: " + (char) operation);
+                    }
                 }
+                total.add(output);
             }
-            j += operations[i].length() + 1;
+            return total.value();
         }
 
-        return Arrays.stream(output).sum();
-    }
+        /**
+         * Each column of a problem is one number; the blank column before the next problem is skipped.
+         */
+        public BigInteger part2() {
+            var total = new Accumulator(arithmetic);
+            var output = new Accumulator(arithmetic);
+            for (int start = nextOperation(0), end; start < width; start = end) {
+                end = nextOperation(start + 1);
+                var operation = operations[start];
+                output.reset(initialValue(operation));
+                for (int i = start, last = end < width ? end - 1 : width; i < last; i++) {
+                    switch (operation) {
+                        case ADD -> output.add(verticals, i);
+                        case MUL -> output.multiply(verticals, i);
+                        default -> throw new IllegalArgumentException("Unknown operation: " + (char) operation);
+                    }
+                }
+                total.add(output);
+            }
+            return total.value();
+        }
 
-    private static long[] initializeOutput(String[] operations) {
-        var output = new long[operations.length];
-        for (int i = 0; i < operations.length; i++) {
-            output[i] = switch (operations[i].charAt(0)) {
+        private int nextOperation(int from) {
+            while (from < width && operations[from] == 0) {
+                from++;
+            }
+            return from;
+        }
+
+        private static long initialValue(byte operation) {
+            return switch (operation) {
                 case ADD -> 0;
                 case MUL -> 1;
-                default -> throw new IllegalArgumentException("Unknown operation: " + operations[i]);
+                default -> throw new IllegalArgumentException("Unknown operation: " + (char) operation);
             };
         }
-        return output;
     }
-}
\ No newline at end of file
+
+    /**
+     * Fork-join evaluation of a memory mapped worksheet. Problems are separated by blank columns,
+     * so the worksheet splits at those columns into independent groups. Each group runs its own
+     * {@link Worksheet} over its column slice of every row and the group totals are summed.
+     */
+    static class ParallelWorksheet {
+        private static final int SEQUENTIAL_COLUMNS = 1 << 14;
+
+        private final ByteBuffer buffer;
+
+        private final int[] rowStarts;
+
+        private final int[] rowEnds;
+
+        private final int[] problemStarts;
+
+        private final int width;
+
+        private final Arithmetic arithmetic;
+
+        private ParallelWorksheet(ByteBuffer buffer, int[] rowStarts, int[] rowEnds, int[] problemStarts,
+                                  int width, Arithmetic arithmetic) {
+            this.buffer = buffer;
+            this.rowStarts = rowStarts;
+            this.rowEnds = rowEnds;
+            this.problemStarts = problemStarts;
+            this.width = width;
+            this.arithmetic = arithmetic;
+        }
+
+        public static Result evaluate(Path path, Arithmetic arithmetic) throws IOException {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                var worksheet = parse(buffer, arithmetic);
+                if (worksheet.problemStarts.length == 0) {
+                    return new Result(BigInteger.ZERO, BigInteger.ZERO);
+                }
+                var result = ForkJoinPool.commonPool().invoke(worksheet.new Group(0, worksheet.problemStarts.length));
+                if (arithmetic == Arithmetic.WRAPPING) {
+                    return new Result(BigInteger.valueOf(result.part1().longValue()),
+                            BigInteger.valueOf(result.part2().longValue()));
+                }
+                return result;
+            }
+        }
+
+        private static ParallelWorksheet parse(ByteBuffer buffer, Arithmetic arithmetic) {
+            var limit = buffer.limit();
+            var rows = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') rows++;
+            }
+            if (limit > 0 && buffer.get(limit - 1) != '\n') rows++;
+
+            var rowStarts = new int[rows];
+            var rowEnds = new int[rows];
+            var width = 0;
+            for (int row = 0, start = 0; row < rows; row++) {
+                var end = start;
+                while (end < limit && buffer.get(end) != '\n') end++;
+                rowStarts[row] = start;
+                rowEnds[row] = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+                width = Math.max(width, rowEnds[row] - start);
+                start = end + 1;
+            }
+
+            var operationsRow = rows - 1;
+            while (operationsRow > 0 && rowEnds[operationsRow] == rowStarts[operationsRow]) {
+                operationsRow--;
+            }
+            var problemStarts = new int[width];
+            var problems = 0;
+            if (operationsRow >= 0) {
+                for (int i = rowStarts[operationsRow]; i < rowEnds[operationsRow]; i++) {
+                    if (buffer.get(i) == ADD || buffer.get(i) == MUL) {
+                        problemStarts[problems++] = i - rowStarts[operationsRow];
+                    }
+                }
+            }
+            problemStarts = Arrays.copyOf(problemStarts, problems);
+            return new ParallelWorksheet(buffer, rowStarts, rowEnds, problemStarts, width, arithmetic);
+        }
+
+        private Result evaluate(int fromProblem, int toProblem) {
+            var from = problemStarts[fromProblem];
+            // Leave out the blank separator so the slice ends with the group's last problem
+            var to = toProblem < problemStarts.length ? problemStarts[toProblem] - 1 : width;
+            var worksheet = new Worksheet(arithmetic);
+            for (int row = 0; row < rowStarts.length; row++) {
+                var start = rowStarts[row];
+                var length = rowEnds[row] - start;
+                worksheet.accept(buffer, start + Math.min(from, length), start + Math.min(to, length));
+            }
+            return worksheet.result();
+        }
+
+        private class Group extends RecursiveTask<Result> {
+            private static final long serialVersionUID = 1L;
+
+            private final int fromProblem;
+
+            private final int toProblem;
+
+            Group(int fromProblem, int toProblem) {
+                this.fromProblem = fromProblem;
+                this.toProblem = toProblem;
+            }
+
+            @Override
+            protected Result compute() {
+                var to = toProblem < problemStarts.length ? problemStarts[toProblem] : width;
+                if (toProblem - fromProblem == 1 || to - problemStarts[fromProblem] <= SEQUENTIAL_COLUMNS) {
+                    return evaluate(fromProblem, toProblem);
+                }
+                var middle = (fromProblem + toProblem) >>> 1;
+                var left = new Group(fromProblem, middle);
+                left.fork();
+                var right = new Group(middle, toProblem).compute();
+                var result = left.join();
+                return new Result(result.part1().add(right.part1()), result.part2().add(right.part2()));
+            }
+        }
+    }
+
+    enum Arithmetic {
+        /**
+         * Plain long arithmetic, results wrap silently on overflow.
+         */
+        WRAPPING,
+        /**
+         * Long arithmetic that promotes to BigInteger only where an overflow is detected.
+         */
+        EXACT;
+
+        static boolean multiplyOverflows(long a, long b) {
+            return Math.multiplyHigh(a, b) != (a * b) >> 63;
+        }
+
+        static boolean addOverflows(long a, long b, long sum) {
+            // Overflow iff both operands have the same sign and the sum has the other one
+            return ((a ^ sum) & (b ^ sum)) < 0;
+        }
+    }
+
+    /**
+     * One long per column that, in exact mode, is promoted to BigInteger on its own when it overflows.
+     */
+    private static class Columns {
+        private final Arithmetic arithmetic;
+
+        private long[] values = new long[0];
+
+        // Columns that overflowed a long in exact mode; allocated on first overflow
+        private BigInteger[] bigValues;
+
+        Columns(Arithmetic arithmetic) {
+            this.arithmetic = arithmetic;
+        }
+
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            if (bigValues != null) {
+                bigValues = Arrays.copyOf(bigValues, capacity);
+            }
+        }
+
+        void fill(int from, int to, long value) {
+            Arrays.fill(values, from, to, value);
+        }
+
+        /**
+         * Appends a decimal digit to the column's value.
+         */
+        void append(int col, int digit) {
+            if (big(col) == null) {
+                var value = values[col];
+                if (arithmetic == Arithmetic.WRAPPING || value <= (Long.MAX_VALUE - digit) / 10) {
+                    values[col] = value * 10 + digit;
+                    return;
+                }
+            }
+            promote(col, value(col).multiply(BigInteger.TEN).add(BigInteger.valueOf(digit)));
+        }
+
+        void add(int col, Accumulator addend) {
+            if (big(col) == null && addend.big == null) {
+                var sum = values[col] + addend.value;
+                if (arithmetic == Arithmetic.WRAPPING || !Arithmetic.addOverflows(values[col], addend.value, sum)) {
+                    values[col] = sum;
+                    return;
+                }
+            }
+            promote(col, value(col).add(addend.value()));
+        }
+
+        void multiply(int col, Accumulator factor) {
+            if (big(col) == null && factor.big == null) {
+                if (arithmetic == Arithmetic.WRAPPING || !Arithmetic.multiplyOverflows(values[col], factor.value)) {
+                    values[col] *= factor.value;
+                    return;
+                }
+            }
+            promote(col, value(col).multiply(factor.value()));
+        }
+
+        /**
+         * The promoted value of a column, null while it still fits in a long.
+         */
+        BigInteger big(int col) {
+            return bigValues != null ? bigValues[col] : null;
+        }
+
+        long get(int col) {
+            return values[col];
+        }
+
+        private BigInteger value(int col) {
+            var big = big(col);
+            return big != null ? big : BigInteger.valueOf(values[col]);
+        }
+
+        private void promote(int col, BigInteger value) {
+            if (bigValues == null) {
+                bigValues = new BigInteger[values.length];
+            }
+            bigValues[col] = value;
+        }
+    }
+
+    /**
+     * Running sum or product kept in a long until, in exact mode, it overflows.
+     */
+    private static class Accumulator {
+        private final Arithmetic arithmetic;
+
+        private long value;
+
+        private BigInteger big;
+
+        Accumulator(Arithmetic arithmetic) {
+            this.arithmetic = arithmetic;
+        }
+
+        void reset(long value) {
+            this.value = value;
+            this.big = null;
+        }
+
+        void add(long addend) {
+            if (big != null) {
+                big = big.add(BigInteger.valueOf(addend));
+                return;
+            }
+            var sum = value + addend;
+            if (arithmetic == Arithmetic.EXACT && Arithmetic.addOverflows(value, addend, sum)) {
+                big = BigInteger.valueOf(value).add(BigInteger.valueOf(addend));
+                return;
+            }
+            value = sum;
+        }
+
+        void add(Accumulator other) {
+            if (other.big != null) {
+                big = value().add(other.big);
+            } else {
+                add(other.value);
+            }
+        }
+
+        void multiply(long factor) {
+            if (big != null) {
+                big = big.multiply(BigInteger.valueOf(factor));
+            } else if (arithmetic == Arithmetic.EXACT && Arithmetic.multiplyOverflows(value, factor)) {
+                big = BigInteger.valueOf(value).multiply(BigInteger.valueOf(factor));
+            } else {
+                value *= factor;
+            }
+        }
+
+        void add(Columns columns, int col) {
+            var other = columns.big(col);
+            if (other != null) {
+                big = value().add(other);
+            } else {
+                add(columns.get(col));
+            }
+        }
+
+        void multiply(Columns columns, int col) {
+            var other = columns.big(col);
+            if (other != null) {
+                big = value().multiply(other);
+            } else {
+                multiply(columns.get(col));
+            }
+        }
+
+        BigInteger value() {
+            return big != null ? big : BigInteger.valueOf(value);
+        }
+    }
+}
@@ -1,110 +1,355 @@
-import util.Lines;
 import util.Terminal;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.function.IntFunction;
 
 public class Day07 {
     public static void main() throws IOException {
         var input = Path.of("input07.txt");
-        Manifold.parse(input).execute();
+        Manifold.sweep(input, Timelines::exact).execute();
     }
 
+    /**
+     * Top-down sweep of the manifold, one row at a time. Beams are kept as the number of
+     * timelines per column, plus a bitset of the columns holding any beam, so a row is resolved
+     * by and-ing that bitset with the row's splitters word by word. A split beam continues from
+     * the next row, and beams leaving the sides keep falling in two padding columns. Memory is
+     * O(cols) and independent of the number of rows. How timelines are counted is left to
+     * {@link Timelines}.
+     */
     private static class Manifold {
         private static final char START = 'S';
 
         private static final char SPLITTER = '^';
 
-        private final Map<Integer, ? extends List<Splitter>> splittersByCol;
+        private final IntFunction<? extends Timelines> counting;
 
-        private final Map<Beam, Long> memo = new HashMap<>();
+        private Timelines beamsPerColumn;
 
-        private final Set<Splitter> part1 = new HashSet<>();
+        private long[] active;
 
-        private final Beam start;
+        private long[] splitters;
 
-        private Manifold(Beam start, Map<Integer, ? extends List<Splitter>> splittersByCol) {
-            this.start = start;
-            this.splittersByCol = splittersByCol;
+        private int rows;
+
+        private int cols = -1;
+
+        private int startRow = -1;
+
+        private int startCol = -1;
+
+        private int splitterCount;
+
+        private int activated;
+
+        private Manifold(IntFunction<? extends Timelines> counting) {
+            this.counting = counting;
         }
 
-        public static Manifold parse(Path input) throws IOException {
-            var terminal = Terminal.get();
-            var manifold = Lines.asCharMatrix(input);
-            var rows = manifold.length;
-            var cols = manifold[0].length;
-            Beam start = null;
-            var splitters = new ArrayList<Splitter>();
-            for (int r = 0; r < rows; r++) {
-                for (int c = 0; c < cols; c++) {
-                    if (manifold[r][c] == START) {
-                        terminal.printf("Start position: (%s, %s)%n", r, c);
-                        start = new Beam(r, c);
-                    } else if (manifold[r][c] == SPLITTER) {
-                        splitters.add(new Splitter(r, c));
-                    }
+        public static Manifold sweep(Path input, IntFunction<? extends Timelines> counting) throws IOException {
+            var manifold = new Manifold(counting);
+            try (var reader = Files.newBufferedReader(input)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    manifold.accept(line);
                 }
             }
-            if (start == null) {
+            if (manifold.startRow < 0) {
                 throw new IllegalStateException("No start position found!");
             }
-            terminal.printf("Manifold size: (%s, %s)%n", rows, cols);
-            terminal.printf("Start: %s%n", start);
-            terminal.printf("Splitters: %s%n", splitters.size());
-
-            splitters.sort(Comparator.comparingInt(Splitter::row));
-            var splittersByCol = splitters.stream().collect(Collectors.groupingBy(Splitter::col));
-
-            return new Manifold(start, splittersByCol);
+            return manifold;
         }
 
         public void execute() {
-            var part2 = countPaths(this.start);
             var terminal = Terminal.get();
-            terminal.println(part1.size());
-            terminal.println(part2);
+            terminal.printf("Start position: (%s, %s)%n", startRow, startCol);
+            terminal.printf("Manifold size: (%s, %s)%n", rows, cols);
+            terminal.printf("Splitters: %s%n", splitterCount);
+            terminal.println(activated);
+            terminal.println(beamsPerColumn.total());
         }
 
-        private long countPaths(Beam beam) {
-            if (memo.containsKey(beam)) {
-                return memo.get(beam);
+        private void accept(String line) {
+            if (cols < 0) {
+                cols = line.length();
+                // Column c is stored at c + 1, with one padding column on each side
+                beamsPerColumn = counting.apply(cols + 2);
+                active = new long[(cols + 2 + 63) >>> 6];
+                splitters = new long[active.length];
+            }
+            if (line.length() > cols) {
+                throw new IllegalArgumentException("Row " + rows + " is wider than the manifold");
             }
-            long paths = 0;
-            var splitter = findFirstSplitterAtOrBelow(beam);
-            if (splitter != null) {
-                this.part1.add(splitter);
-                for (var nextBeam : splitter.split()) {
-                    paths = Math.addExact(paths, countPaths(nextBeam));
+            Arrays.fill(splitters, 0L);
+            for (int c = 0; c < line.length(); c++) {
+                var cell = line.charAt(c);
+                if (cell == SPLITTER) {
+                    set(splitters, c + 1);
+                    splitterCount++;
+                } else if (cell == START) {
+                    if (startRow >= 0) {
+                        throw new IllegalStateException("Multiple start positions found!");
+                    }
+                    startRow = rows;
+                    startCol = c;
+                    beamsPerColumn.start(c + 1);
+                    set(active, c + 1);
                 }
-            } else {
-                paths = 1;
             }
-            memo.put(beam, paths);
-            return paths;
+            split();
+            rows++;
         }
 
-        private Splitter findFirstSplitterAtOrBelow(Beam beam) {
-            var splittersOnPath = splittersByCol.get(beam.col());
-            if (splittersOnPath == null) {
-                return null;
+        private void split() {
+            // splitters becomes the set of splitters hit by a beam in this row
+            for (int w = 0; w < splitters.length; w++) {
+                splitters[w] &= active[w];
+                activated += Long.bitCount(splitters[w]);
             }
-            for (var splitter : splittersOnPath) {
-                if (splitter.row() >= beam.row()) {
-                    return splitter;
+            for (int w = 0; w < splitters.length; w++) {
+                for (long bits = splitters[w]; bits != 0; bits &= bits - 1) {
+                    var col = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    beamsPerColumn.detach(col);
+                    active[w] &= ~(1L << col);
+                }
+            }
+            for (int w = 0; w < splitters.length; w++) {
+                for (long bits = splitters[w]; bits != 0; bits &= bits - 1) {
+                    var col = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    beamsPerColumn.spill(col, col - 1);
+                    beamsPerColumn.spill(col, col + 1);
+                    set(active, col - 1);
+                    set(active, col + 1);
                 }
             }
-            return null;
+        }
+
+        private static void set(long[] bits, int index) {
+            bits[index >>> 6] |= 1L << index;
         }
     }
 
-    record Splitter(int row, int col) {
-        List<Beam> split() {
-            return List.of(new Beam(row, col - 1), new Beam(row, col + 1));
+    /**
+     * Number of timelines per column. A row first detaches the beams of every hit splitter and
+     * then spills each detached count onto both neighbouring columns.
+     */
+    interface Timelines {
+        void start(int col);
+
+        void detach(int col);
+
+        void spill(int from, int to);
+
+        Number total();
+
+        /**
+         * Long counts that throw {@link ArithmeticException} past {@link Long#MAX_VALUE}.
+         */
+        static Timelines checked(int width) {
+            return new Checked(width);
+        }
+
+        /**
+         * Exact counts, in 128 bits per column until a column outgrows them and moves to BigInteger.
+         */
+        static Timelines exact(int width) {
+            return new Exact(width);
+        }
+
+        /**
+         * Counts modulo {@code modulus}, typically a large prime. Only additions are involved,
+         * so any modulus up to 2^62 works.
+         */
+        static IntFunction<Timelines> modular(long modulus) {
+            if (modulus < 2 || modulus > 1L << 62) {
+                throw new IllegalArgumentException("Modulus out of range: " + modulus);
+            }
+            return width -> new Modular(width, modulus);
         }
     }
 
-    record Beam(int row, int col) {
+    private static class Checked implements Timelines {
+        private final long[] beams;
+
+        private final long[] splitting;
+
+        Checked(int width) {
+            this.beams = new long[width];
+            this.splitting = new long[width];
+        }
+
+        @Override
+        public void start(int col) {
+            beams[col] = 1;
+        }
+
+        @Override
+        public void detach(int col) {
+            splitting[col] = beams[col];
+            beams[col] = 0;
+        }
+
+        @Override
+        public void spill(int from, int to) {
+            beams[to] = Math.addExact(beams[to], splitting[from]);
+        }
+
+        @Override
+        public Number total() {
+            long total = 0;
+            for (var count : beams) {
+                total = Math.addExact(total, count);
+            }
+            return total;
+        }
+    }
+
+    private static class Modular implements Timelines {
+        private final long[] beams;
+
+        private final long[] splitting;
+
+        private final long modulus;
+
+        Modular(int width, long modulus) {
+            this.beams = new long[width];
+            this.splitting = new long[width];
+            this.modulus = modulus;
+        }
+
+        @Override
+        public void start(int col) {
+            beams[col] = 1;
+        }
+
+        @Override
+        public void detach(int col) {
+            splitting[col] = beams[col];
+            beams[col] = 0;
+        }
+
+        @Override
+        public void spill(int from, int to) {
+            // Both terms are below modulus <= 2^62, so the sum cannot overflow
+            var sum = beams[to] + splitting[from];
+            beams[to] = sum >= modulus ? sum - modulus : sum;
+        }
+
+        @Override
+        public Number total() {
+            long total = 0;
+            for (var count : beams) {
+                total = (total + count) % modulus;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Unsigned 128-bit counts split into high and low words. A column whose count reaches 2^127
+     * is promoted to a BigInteger; the promotion table is only allocated once that happens.
+     */
+    private static class Exact implements Timelines {
+        private final long[] high;
+
+        private final long[] low;
+
+        private final long[] splitHigh;
+
+        private final long[] splitLow;
+
+        private BigInteger[] big;
+
+        private BigInteger[] splitBig;
+
+        Exact(int width) {
+            this.high = new long[width];
+            this.low = new long[width];
+            this.splitHigh = new long[width];
+            this.splitLow = new long[width];
+        }
+
+        @Override
+        public void start(int col) {
+            high[col] = 0;
+            low[col] = 1;
+        }
+
+        @Override
+        public void detach(int col) {
+            splitHigh[col] = high[col];
+            splitLow[col] = low[col];
+            high[col] = 0;
+            low[col] = 0;
+            if (big != null) {
+                splitBig[col] = big[col];
+                big[col] = null;
+            }
+        }
+
+        @Override
+        public void spill(int from, int to) {
+            if (big != null && (big[to] != null || splitBig[from] != null)) {
+                promote(to, count(high, low, big, to).add(count(splitHigh, splitLow, splitBig, from)));
+                return;
+            }
+            var sumLow = low[to] + splitLow[from];
+            var carry = Long.compareUnsigned(sumLow, low[to]) < 0 ? 1 : 0;
+            var sumHigh = high[to] + splitHigh[from] + carry;
+            if (sumHigh < 0) {
+                promote(to, toBigInteger(high[to], low[to]).add(toBigInteger(splitHigh[from], splitLow[from])));
+                return;
+            }
+            high[to] = sumHigh;
+            low[to] = sumLow;
+        }
+
+        @Override
+        public Number total() {
+            long totalHigh = 0, totalLow = 0;
+            var overflow = BigInteger.ZERO;
+            for (int col = 0; col < low.length; col++) {
+                if (big != null && big[col] != null) {
+                    overflow = overflow.add(big[col]);
+                    continue;
+                }
+                var sumLow = totalLow + low[col];
+                var sumHigh = totalHigh + high[col] + (Long.compareUnsigned(sumLow, totalLow) < 0 ? 1 : 0);
+                if (sumHigh < 0) {
+                    overflow = overflow.add(toBigInteger(totalHigh, totalLow));
+                    sumHigh = high[col];
+                    sumLow = low[col];
+                }
+                totalHigh = sumHigh;
+                totalLow = sumLow;
+            }
+            return overflow.add(toBigInteger(totalHigh, totalLow));
+        }
+
+        private void promote(int col, BigInteger count) {
+            if (big == null) {
+                big = new BigInteger[low.length];
+                splitBig = new BigInteger[low.length];
+            }
+            big[col] = count;
+            high[col] = 0;
+            low[col] = 0;
+        }
+
+        private static BigInteger count(long[] high, long[] low, BigInteger[] big, int col) {
+            return big[col] != null ? big[col] : toBigInteger(high[col], low[col]);
+        }
+
+        private static BigInteger toBigInteger(long high, long low) {
+            var lowBits = BigInteger.valueOf(low & Long.MAX_VALUE);
+            if (low < 0) {
+                lowBits = lowBits.setBit(63);
+            }
+            return BigInteger.valueOf(high).shiftLeft(64).or(lowBits);
+        }
     }
 }
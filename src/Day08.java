@@ -1,75 +1,636 @@
+import util.DisjointSet;
 import util.Lines;
 import util.Terminal;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.PriorityQueue;
+import java.util.stream.IntStream;
 
 public class Day08 {
+    private static final int CONNECTIONS = 1000;
+
+    // Up to this many boxes every pair fits in a packed edge buffer
+    private static final int ALL_PAIRS_LIMIT = 2048;
+
     public static void main() throws IOException {
         var terminal = Terminal.get();
         var input = Path.of("input08.txt");
 
         var boxes = Lines.asStrings(input).stream().map(Box::parse).toArray(Box[]::new);
 
-        var heap = new PriorityQueue<Pair>();
-        for (int i = 0; i < boxes.length; i++) {
-            for (int j = i + 1; j < boxes.length; j++) {
-                heap.add(new Pair(i, j, boxes[i].distance(boxes[j])));
+        if (boxes.length <= ALL_PAIRS_LIMIT && EdgeBuffer.fits(boxes)) {
+            var edges = EdgeBuffer.of(boxes);
+
+            // Part 1
+            terminal.println(snapshots(boxes.length, edges.shortest(CONNECTIONS), CONNECTIONS)[0]);
+
+            // Part 2
+            var circuits = new DisjointSet(boxes.length);
+            long part2 = 0;
+            for (var key : edges.sorted()) {
+                int i = edges.i(key), j = edges.j(key);
+                if (circuits.union(i, j) && circuits.components() == 1) {
+                    part2 = Math.multiplyFull(boxes[i].x(), boxes[j].x());
+                    break;
+                }
             }
+            terminal.println(part2);
+            return;
         }
 
-        var circuits = new int[boxes.length];
-        var size = new int[boxes.length];
-        for (int i = 0; i < circuits.length; i++) {
-            circuits[i] = i;
-            size[i] = 1;
+        var tree = new KdTree(boxes);
+
+        // Part 1
+        terminal.println(snapshots(boxes.length, new NearestEdges(tree), CONNECTIONS)[0]);
+
+        // Part 2: the pair that joins the last two circuits is the longest edge of the spanning tree
+        var longest = Arrays.stream(SpanningTree.of(tree)).max(Pair.ORDER);
+        long part2 = longest.map(pair -> Math.multiplyFull(boxes[pair.i()].x(), boxes[pair.j()].x())).orElse(0L);
+        terminal.println(part2);
+    }
+
+    /**
+     * Product of the three largest circuits after each number of connections in
+     * {@code thresholds}, which must be in ascending order. The connections are made once, in
+     * order, and every snapshot reads the component-size counts the {@link DisjointSet} keeps
+     * up to date, so many thresholds cost no more than the largest one.
+     */
+    static long[] snapshots(int boxes, Connections connections, int... thresholds) {
+        var circuits = new DisjointSet(boxes);
+        var products = new long[thresholds.length];
+        var made = 0;
+        for (int t = 0; t < thresholds.length; t++) {
+            if (thresholds[t] < (t == 0 ? 0 : thresholds[t - 1])) {
+                throw new IllegalArgumentException("Thresholds must be ascending: " + Arrays.toString(thresholds));
+            }
+            while (made < thresholds[t] && connections.connectNext(circuits)) {
+                made++;
+            }
+            products[t] = 1;
+            for (var size : circuits.largest(3)) {
+                products[t] *= size;
+            }
         }
+        return products;
+    }
+
+    /**
+     * Source of pairs of boxes to connect, shortest first.
+     */
+    interface Connections {
+        /**
+         * Connects the next pair in {@code circuits}; false once there are no pairs left.
+         */
+        boolean connectNext(DisjointSet circuits);
+    }
+
+    /**
+     * Pairs of boxes in increasing distance order, generated lazily from each box's nearest
+     * neighbours. Every box keeps a sorted batch of its nearest neighbours and a cursor into it;
+     * a heap holds the next pair of every box, so its minimum is the shortest pair not yet
+     * returned. A batch that runs out is widened by querying twice as many neighbours. Memory is
+     * O(n·k) instead of the O(n²) of materialising every pair.
+     */
+    static class NearestEdges implements Connections {
+        private static final int INITIAL_NEIGHBOURS = 8;
+
+        private final KdTree tree;
+
+        private final int[][] neighbours;
+
+        private final long[][] distances;
 
-        int count = 1000;
-        while (!heap.isEmpty()) {
-            var pair = heap.poll();
-            var i_root = findRoot(circuits, pair.i());
-            var j_root = findRoot(circuits, pair.j());
-            if (i_root != j_root) {
-                if (size[i_root] < size[j_root]) {
-                    circuits[i_root] = j_root;
-                    size[j_root] += size[i_root];
+        private final int[] cursors;
+
+        private final PriorityQueue<Pair> heads = new PriorityQueue<>();
+
+        private Pair next;
+
+        NearestEdges(KdTree tree) {
+            this.tree = tree;
+            var n = tree.size();
+            this.neighbours = new int[n][];
+            this.distances = new long[n][];
+            this.cursors = new int[n];
+            for (int i = 0; i < n; i++) {
+                query(i, Math.min(INITIAL_NEIGHBOURS, n - 1));
+                pushHead(i);
+            }
+            advance();
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Pair next() {
+            var pair = next;
+            advance();
+            return pair;
+        }
+
+        @Override
+        public boolean connectNext(DisjointSet circuits) {
+            if (!hasNext()) {
+                return false;
+            }
+            var pair = next();
+            circuits.union(pair.i(), pair.j());
+            return true;
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !heads.isEmpty()) {
+                var head = heads.poll();
+                cursors[head.i()]++;
+                pushHead(head.i());
+                // Every pair is seen once from each end; return it from the lower index only
+                if (head.i() < head.j()) {
+                    next = head;
+                }
+            }
+        }
+
+        private void pushHead(int i) {
+            if (cursors[i] == neighbours[i].length) {
+                var known = neighbours[i].length;
+                var limit = tree.size() - 1;
+                if (known == limit) {
+                    return;
+                }
+                query(i, Math.min(Math.max(known << 1, 1), limit));
+            }
+            var cursor = cursors[i];
+            heads.add(new Pair(i, neighbours[i][cursor], distances[i][cursor]));
+        }
+
+        private void query(int i, int k) {
+            var found = tree.nearest(i, k);
+            neighbours[i] = found.indices();
+            distances[i] = found.distances();
+        }
+    }
+
+    /**
+     * Every pair of boxes packed into one {@code long}: the squared distance in the high bits and
+     * {@code i * n + j} in the low bits. Sorting the keys orders pairs like {@link Pair#ORDER}
+     * without allocating a Pair per edge. Only usable when the boxes {@link #fits fit}.
+     */
+    static class EdgeBuffer {
+        private final long[] keys;
+
+        private final int n;
+
+        private final int indexBits;
+
+        private EdgeBuffer(long[] keys, int n, int indexBits) {
+            this.keys = keys;
+            this.n = n;
+            this.indexBits = indexBits;
+        }
+
+        /**
+         * Whether every pair of {@code boxes} fits in the buffer, with room in each key for both
+         * the largest squared distance and the pair's index.
+         */
+        public static boolean fits(Box[] boxes) {
+            var n = boxes.length;
+            return (long) n * (n - 1) / 2 <= Integer.MAX_VALUE - 8 && distanceBits(boxes) + indexBits(n) <= 63;
+        }
+
+        public static EdgeBuffer of(Box[] boxes) {
+            if (!fits(boxes)) {
+                throw new IllegalArgumentException("Cannot pack every pair of " + boxes.length + " boxes");
+            }
+            var n = boxes.length;
+            var pairs = (long) n * (n - 1) / 2;
+            var indexBits = indexBits(n);
+            var keys = new long[(int) pairs];
+            IntStream.range(0, n).parallel().forEach(i -> {
+                // Pairs (i, j > i) start after the n - 1 + ... + n - i pairs of earlier rows
+                var offset = (int) ((long) i * (2L * n - i - 1) / 2);
+                for (int j = i + 1; j < n; j++) {
+                    keys[offset++] = boxes[i].distance(boxes[j]) << indexBits | ((long) i * n + j);
+                }
+            });
+            return new EdgeBuffer(keys, n, indexBits);
+        }
+
+        private static int indexBits(int n) {
+            return 64 - Long.numberOfLeadingZeros(Math.max((long) n * n - 1, 1));
+        }
+
+        // Bits of the squared diagonal of the bounding box, 64 when it does not fit in a long
+        private static int distanceBits(Box[] boxes) {
+            var min = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+            var max = new int[]{Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+            for (var box : boxes) {
+                for (int axis = 0; axis < 3; axis++) {
+                    min[axis] = Math.min(min[axis], box.coordinate(axis));
+                    max[axis] = Math.max(max[axis], box.coordinate(axis));
+                }
+            }
+            var maxDistance = 0L;
+            try {
+                for (int axis = 0; boxes.length > 0 && axis < 3; axis++) {
+                    var span = (long) max[axis] - min[axis];
+                    maxDistance = Math.addExact(maxDistance, Math.multiplyExact(span, span));
+                }
+            } catch (ArithmeticException e) {
+                return Long.SIZE;
+            }
+            return Long.SIZE - Long.numberOfLeadingZeros(maxDistance);
+        }
+
+        public int i(long key) {
+            return (int) ((key & ((1L << indexBits) - 1)) / n);
+        }
+
+        public int j(long key) {
+            return (int) ((key & ((1L << indexBits) - 1)) % n);
+        }
+
+        /**
+         * The {@code k} shortest pairs in order. Only those are sorted; quickselect moves them to
+         * the front of the buffer first.
+         */
+        public long[] smallest(int k) {
+            k = Math.min(k, keys.length);
+            select(k);
+            var smallest = Arrays.copyOf(keys, k);
+            Arrays.sort(smallest);
+            return smallest;
+        }
+
+        /**
+         * The {@code k} shortest pairs as connections, see {@link #smallest(int)}.
+         */
+        public Connections shortest(int k) {
+            var keys = smallest(k);
+            var next = new int[1];
+            return circuits -> {
+                if (next[0] == keys.length) {
+                    return false;
+                }
+                var key = keys[next[0]++];
+                circuits.union(i(key), j(key));
+                return true;
+            };
+        }
+
+        /**
+         * All pairs in order, sorted in place in parallel.
+         */
+        public long[] sorted() {
+            Arrays.parallelSort(keys);
+            return keys;
+        }
+
+        // Quickselect: leaves the k smallest keys in keys[0, k)
+        private void select(int k) {
+            int lo = 0, hi = keys.length - 1;
+            while (lo < hi) {
+                var pivot = keys[(lo + hi) >>> 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (keys[i] < pivot) i++;
+                    while (keys[j] > pivot) j--;
+                    if (i <= j) {
+                        var tmp = keys[i];
+                        keys[i++] = keys[j];
+                        keys[j--] = tmp;
+                    }
+                }
+                if (k - 1 <= j) {
+                    hi = j;
+                } else if (k - 1 >= i) {
+                    lo = i;
                 } else {
-                    circuits[j_root] = i_root;
-                    size[i_root] += size[j_root];
+                    return;
                 }
             }
-            // Part 1
-            if (--count == 0) {
-                var part1 = new ArrayList<Integer>();
-                for (int i = 0; i < circuits.length; i++) {
-                    if (circuits[i] == i) {
-                        part1.add(size[i]);
+        }
+    }
+
+    /**
+     * Euclidean minimum spanning tree built with Borůvka rounds. Each round labels every k-d tree
+     * node whose boxes all belong to one circuit, then finds, in parallel, the nearest box in a
+     * different circuit for every box, skipping labelled subtrees of its own circuit. The
+     * shortest such pair of each circuit joins it to another one, so the number of circuits at
+     * least halves per round. Pairs are ordered by {@link Pair#ORDER}, which is total, so equal
+     * distances cannot close a cycle.
+     */
+    static class SpanningTree {
+        public static Pair[] of(KdTree tree) {
+            var n = tree.size();
+            var circuits = DisjointSet.concurrent(n);
+            var edges = new ArrayList<Pair>(Math.max(n - 1, 0));
+            var component = new int[n];
+            var nearest = new Pair[n];
+            var cheapest = new Pair[n];
+            while (circuits.components() > 1) {
+                IntStream.range(0, n).parallel().forEach(i -> component[i] = circuits.find(i));
+                var nodeComponent = tree.label(component);
+                IntStream.range(0, n).parallel().forEach(i -> nearest[i] = tree.nearestOutside(i, component, nodeComponent));
+
+                Arrays.fill(cheapest, null);
+                for (int i = 0; i < n; i++) {
+                    var c = component[i];
+                    if (cheapest[c] == null || Pair.ORDER.compare(nearest[i], cheapest[c]) < 0) {
+                        cheapest[c] = nearest[i];
+                    }
+                }
+                // Several circuits may pick the same pair; only the union that succeeds keeps it
+                IntStream.range(0, n).parallel().forEach(c -> {
+                    var pair = cheapest[c];
+                    if (pair != null && !circuits.union(pair.i(), pair.j())) {
+                        cheapest[c] = null;
+                    }
+                });
+                for (var pair : cheapest) {
+                    if (pair != null) {
+                        edges.add(pair);
                     }
                 }
-                part1.sort(Comparator.reverseOrder());
-                terminal.println(part1.get(0) * part1.get(1) * part1.get(2));
             }
-            // Part 2
-            if (Math.max(size[i_root], size[j_root]) == boxes.length) {
-                long part2 = Math.multiplyFull(boxes[pair.i()].x(), boxes[pair.j()].x());
-                terminal.println(part2);
-                break;
+            return edges.toArray(Pair[]::new);
+        }
+    }
+
+    /**
+     * Balanced k-d tree over the boxes, stored implicitly: the median of {@code order[lo, hi)}
+     * along the node's axis sits in the middle of that range.
+     */
+    static class KdTree {
+        private static final int EMPTY = -2;
+
+        private static final int MIXED = -1;
+
+        private final Box[] boxes;
+
+        private final int[] order;
+
+        private final byte[] axes;
+
+        KdTree(Box[] boxes) {
+            this.boxes = boxes;
+            this.order = new int[boxes.length];
+            this.axes = new byte[boxes.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            build(0, order.length);
+        }
+
+        public int size() {
+            return boxes.length;
+        }
+
+        private void build(int lo, int hi) {
+            if (hi - lo <= 1) {
+                return;
+            }
+            var axis = widestAxis(lo, hi);
+            var mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, axis);
+            axes[mid] = (byte) axis;
+            build(lo, mid);
+            build(mid + 1, hi);
+        }
+
+        private int widestAxis(int lo, int hi) {
+            var min = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+            var max = new int[]{Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+            for (int p = lo; p < hi; p++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    var value = boxes[order[p]].coordinate(axis);
+                    min[axis] = Math.min(min[axis], value);
+                    max[axis] = Math.max(max[axis], value);
+                }
+            }
+            var widest = 0;
+            for (int axis = 1; axis < 3; axis++) {
+                if ((long) max[axis] - min[axis] > (long) max[widest] - min[widest]) {
+                    widest = axis;
+                }
+            }
+            return widest;
+        }
+
+        // Quickselect: leaves order[k] in sorted position along axis, smaller ones before it
+        private void select(int lo, int hi, int k, int axis) {
+            hi--;
+            while (lo < hi) {
+                var pivot = boxes[order[(lo + hi) >>> 1]].coordinate(axis);
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (boxes[order[i]].coordinate(axis) < pivot) i++;
+                    while (boxes[order[j]].coordinate(axis) > pivot) j--;
+                    if (i <= j) {
+                        var tmp = order[i];
+                        order[i++] = order[j];
+                        order[j--] = tmp;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The {@code k} boxes nearest to box {@code i}, excluding itself, ordered by distance and
+         * then by index so that a wider query always extends a narrower one.
+         */
+        public Neighbours nearest(int i, int k) {
+            var heap = new Neighbours(new int[k], new long[k]);
+            var size = nearest(boxes[i], i, 0, order.length, heap, 0, k);
+            return heap.sorted(size);
+        }
+
+        private int nearest(Box target, int self, int lo, int hi, Neighbours heap, int size, int k) {
+            if (lo >= hi) {
+                return size;
+            }
+            var mid = (lo + hi) >>> 1;
+            var index = order[mid];
+            if (index != self) {
+                size = heap.offer(index, target.distance(boxes[index]), size, k);
+            }
+            if (hi - lo == 1) {
+                return size;
+            }
+            var axis = axes[mid];
+            long delta = (long) target.coordinate(axis) - boxes[index].coordinate(axis);
+            var nearFirst = delta < 0;
+            size = nearFirst
+                    ? nearest(target, self, lo, mid, heap, size, k)
+                    : nearest(target, self, mid + 1, hi, heap, size, k);
+            if (size < k || delta * delta <= heap.distances()[0]) {
+                size = nearFirst
+                        ? nearest(target, self, mid + 1, hi, heap, size, k)
+                        : nearest(target, self, lo, mid, heap, size, k);
+            }
+            return size;
+        }
+
+        /**
+         * Labels every node with the component shared by all boxes in its subtree, or -1 when
+         * they differ. The label is stored at the node's median position.
+         */
+        public int[] label(int[] component) {
+            var nodeComponent = new int[order.length];
+            label(component, nodeComponent, 0, order.length);
+            return nodeComponent;
+        }
+
+        private int label(int[] component, int[] nodeComponent, int lo, int hi) {
+            if (lo >= hi) {
+                return EMPTY;
+            }
+            var mid = (lo + hi) >>> 1;
+            var c = component[order[mid]];
+            var left = label(component, nodeComponent, lo, mid);
+            var right = label(component, nodeComponent, mid + 1, hi);
+            var uniform = (left == c || left == EMPTY) && (right == c || right == EMPTY);
+            nodeComponent[mid] = uniform ? c : MIXED;
+            return nodeComponent[mid];
+        }
+
+        /**
+         * The nearest box to box {@code i} in another component, ties going to the lower index,
+         * as a pair ordered by index. Null if every box is in the same component.
+         */
+        public Pair nearestOutside(int i, int[] component, int[] nodeComponent) {
+            var best = new long[]{Long.MAX_VALUE, -1};
+            nearestOutside(boxes[i], component[i], 0, order.length, component, nodeComponent, best);
+            if (best[1] < 0) {
+                return null;
+            }
+            var j = (int) best[1];
+            return new Pair(Math.min(i, j), Math.max(i, j), best[0]);
+        }
+
+        private void nearestOutside(Box target, int c, int lo, int hi, int[] component, int[] nodeComponent, long[] best) {
+            if (lo >= hi) {
+                return;
+            }
+            var mid = (lo + hi) >>> 1;
+            if (nodeComponent[mid] == c) {
+                return;
+            }
+            var index = order[mid];
+            if (component[index] != c) {
+                var distance = target.distance(boxes[index]);
+                if (distance < best[0] || (distance == best[0] && index < best[1])) {
+                    best[0] = distance;
+                    best[1] = index;
+                }
+            }
+            if (hi - lo == 1) {
+                return;
+            }
+            var axis = axes[mid];
+            long delta = (long) target.coordinate(axis) - boxes[index].coordinate(axis);
+            var nearFirst = delta < 0;
+            if (nearFirst) {
+                nearestOutside(target, c, lo, mid, component, nodeComponent, best);
+            } else {
+                nearestOutside(target, c, mid + 1, hi, component, nodeComponent, best);
+            }
+            if (delta * delta <= best[0]) {
+                if (nearFirst) {
+                    nearestOutside(target, c, mid + 1, hi, component, nodeComponent, best);
+                } else {
+                    nearestOutside(target, c, lo, mid, component, nodeComponent, best);
+                }
             }
         }
     }
 
-    private static int findRoot(int[] circuits, int i) {
-        if (circuits[i] != i) {
-            circuits[i] = findRoot(circuits, circuits[i]);
+    /**
+     * Bounded max-heap of candidate neighbours keyed by (distance, index); the root is the
+     * current k-th nearest.
+     */
+    record Neighbours(int[] indices, long[] distances) {
+        int offer(int index, long distance, int size, int k) {
+            if (size < k) {
+                indices[size] = index;
+                distances[size] = distance;
+                siftUp(size);
+                return size + 1;
+            }
+            if (k > 0 && farther(indices[0], distances[0], index, distance)) {
+                indices[0] = index;
+                distances[0] = distance;
+                siftDown(0, size);
+            }
+            return size;
+        }
+
+        Neighbours sorted(int size) {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return new Neighbours(Arrays.copyOf(indices, size), Arrays.copyOf(distances, size));
+        }
+
+        private void siftUp(int child) {
+            while (child > 0) {
+                var parent = (child - 1) >>> 1;
+                if (!farther(indices[child], distances[child], indices[parent], distances[parent])) {
+                    return;
+                }
+                swap(child, parent);
+                child = parent;
+            }
+        }
+
+        private void siftDown(int parent, int size) {
+            while (true) {
+                var largest = parent;
+                for (int child = 2 * parent + 1; child <= 2 * parent + 2 && child < size; child++) {
+                    if (farther(indices[child], distances[child], indices[largest], distances[largest])) {
+                        largest = child;
+                    }
+                }
+                if (largest == parent) {
+                    return;
+                }
+                swap(parent, largest);
+                parent = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            var index = indices[a];
+            indices[a] = indices[b];
+            indices[b] = index;
+            var distance = distances[a];
+            distances[a] = distances[b];
+            distances[b] = distance;
+        }
+
+        private static boolean farther(int i, long di, int j, long dj) {
+            return di > dj || (di == dj && i > j);
         }
-        return circuits[i];
     }
 
     record Pair(int i, int j, long distance) implements Comparable<Pair> {
+        static final Comparator<Pair> ORDER = Comparator.comparingLong(Pair::distance)
+                .thenComparingInt(Pair::i)
+                .thenComparingInt(Pair::j);
+
         @Override
         public int compareTo(Pair o) {
             return Long.compare(this.distance(), o.distance());
@@ -84,6 +645,15 @@ public class Day08 {
             return x * x + y * y + z * z;
         }
 
+        public int coordinate(int axis) {
+            return switch (axis) {
+                case 0 -> x;
+                case 1 -> y;
+                case 2 -> z;
+                default -> throw new IllegalArgumentException("Unknown axis: " + axis);
+            };
+        }
+
         public static Box parse(String line) {
             var parts = line.split(",");
             return new Box(Integer.parseInt(parts[0]),
@@ -1,3 +1,4 @@
+import util.Compression;
 import util.Lines;
 import util.Terminal;
 
@@ -6,6 +7,9 @@ import java.nio.file.Path;
 import java.util.*;
 
 public class Day09 {
+    // Up to this many red tiles the compressed grid is rasterized; past it its tables outgrow the heap
+    private static final int DENSE_LIMIT = 2048;
+
     public static void main() throws IOException {
         var terminal = Terminal.get();
         var input = Path.of("input09.txt");
@@ -13,152 +17,806 @@ public class Day09 {
         // Read red tiles are the corners of the shape
         var originalTiles = Lines.asStrings(input).stream().map(Tile::parse).toArray(Tile[]::new);
 
-        // Compress coordinates
-        var rows = new TreeSet<Integer>();
-        var cols = new TreeSet<Integer>();
-        rows.add(0);
-        cols.add(0);
-        for (var tile : originalTiles) {
-            rows.add(tile.row());
-            rows.add(tile.row() + 1);
-            rows.add(tile.row() - 1);
+        Tile[] cornerTiles;
+        Oracle oracle;
+        if (originalTiles.length <= DENSE_LIMIT) {
+            var floor = Floor.of(originalTiles);
+            cornerTiles = floor.corners();
 
-            cols.add(tile.col());
-            cols.add(tile.col() + 1);
-            cols.add(tile.col() - 1);
+            var rows = floor.rows();
+            var cols = floor.cols();
+            terminal.printf("Original row index span: %d to %d%n", rows.value(0), rows.value(rows.size() - 1));
+            terminal.printf("Original col index span: %d to %d%n", cols.value(0), cols.value(cols.size() - 1));
+            terminal.printf("Compressed row index span: %d to %d%n", 0, rows.size() - 1);
+            terminal.printf("Compressed col index span: %d to %d%n", 0, cols.size() - 1);
+            terminal.printf("Corner tiles: %d%n", cornerTiles.length);
+            terminal.printf("Perimeter tiles: %d%n", floor.perimeter());
+            terminal.printf("Outside tiles: %d%n", floor.outside().cardinality());
+            oracle = new PrefixSums(floor);
+        } else {
+            cornerTiles = originalTiles;
+            terminal.printf("Corner tiles: %d%n", cornerTiles.length);
+            oracle = new Rim(originalTiles);
         }
-        var rowArray = rows.stream().mapToInt(Integer::intValue).toArray();
-        var colArray = cols.stream().mapToInt(Integer::intValue).toArray();
-        var rowMap = new HashMap<Integer, Integer>();
-        var colMap = new HashMap<Integer, Integer>();
-        for (int i = 0; i < rowArray.length; i++) {
-            rowMap.put(rowArray[i], i);
-        }
-        for (int i = 0; i < colArray.length; i++) {
-            colMap.put(colArray[i], i);
+
+        var part1 = largest(originalTiles);
+        terminal.println(part1);
+        var part2 = largest(originalTiles, cornerTiles, oracle);
+        terminal.println(part2);
+    }
+
+    /**
+     * Area of the largest rectangle between two red tiles that the oracle accepts, 0 if none.
+     * Instead of materialising every pair, corners are visited best-first by an upper bound on
+     * any rectangle they can make: the one reaching the farthest red tile on each axis, or the
+     * oracle's own {@link Oracle#bound} when that is tighter. A visited corner is scanned against
+     * every other corner whose bound admits the pair, and the search stops once the next bound
+     * cannot beat the best area found, keeping memory at O(n).
+     */
+    static long largest(Tile[] originalTiles, Tile[] cornerTiles, Oracle oracle) {
+        int minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE;
+        int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+        for (var tile : originalTiles) {
+            minCol = Math.min(minCol, tile.col());
+            maxCol = Math.max(maxCol, tile.col());
+            minRow = Math.min(minRow, tile.row());
+            maxRow = Math.max(maxRow, tile.row());
         }
-        var cornerTiles = new Tile[originalTiles.length];
+        var corners = new PriorityQueue<Pair>();
+        var bounds = new long[originalTiles.length];
         for (int i = 0; i < originalTiles.length; i++) {
             var tile = originalTiles[i];
-            var mappedCol = colMap.get(tile.col());
-            var mappedRow = rowMap.get(tile.row());
-            cornerTiles[i] = new Tile(mappedCol, mappedRow);
-        }
-
-        // Compute all perimeter tiles (including corners)
-        var perimeterTiles = getPerimeterTiles(cornerTiles);
-
-        // Compute all outside tiles using a flood fill from outside the shape
-        var outsideTiles = getOutsideTiles(cornerTiles, perimeterTiles);
-        
-        terminal.printf("Original row index span: %d to %d%n", rows.first(), rows.last());
-        terminal.printf("Original col index span: %d to %d%n", cols.first(), cols.last());
-        terminal.printf("Compressed row index span: %d to %d%n", 0, rows.size() - 1);
-        terminal.printf("Compressed col index span: %d to %d%n", 0, cols.size() - 1);
-        terminal.printf("Corner tiles: %d%n", cornerTiles.length);
-        terminal.printf("Perimeter tiles: %d%n", perimeterTiles.size());
-        terminal.printf("Outside tiles: %d%n", outsideTiles.size());
-
-        var heap = new PriorityQueue<Pair>();
-        var columnIndex = buildColumnIndex(outsideTiles);
-        for (int i = 0; i < cornerTiles.length; i++) {
-            for (int j = i + 1; j < cornerTiles.length; j++) {
+            var width = Math.max((long) tile.col() - minCol, (long) maxCol - tile.col()) + 1;
+            var height = Math.max((long) tile.row() - minRow, (long) maxRow - tile.row()) + 1;
+            bounds[i] = Math.min(width * height, oracle.bound(cornerTiles[i]));
+            corners.add(new Pair(i, i, bounds[i]));
+        }
+        var best = 0L;
+        while (!corners.isEmpty() && corners.peek().area() > best) {
+            var i = corners.poll().i();
+            for (int j = 0; j < originalTiles.length; j++) {
                 var area = originalTiles[i].area(originalTiles[j]);
-                heap.add(new Pair(i, j, area));
+                if (area > best && area <= bounds[j] && j != i && oracle.isValid(cornerTiles[i], cornerTiles[j])) {
+                    best = area;
+                }
             }
         }
-        var part1 = heap.peek();
-        terminal.println(part1 == null ? 0 : part1.area());
-        var part2 = 0L;
-        while (!heap.isEmpty()) {
-            var pair = heap.poll();
-            if (isValid(cornerTiles[pair.i()], cornerTiles[pair.j()], columnIndex)) {
-                part2 = pair.area();
-                break;
+        return best;
+    }
+
+    /**
+     * Area of the largest rectangle between any two red tiles, in O(n log n). Every pair either
+     * has one tile below and left of the other or one tile above and left of it; mirroring the
+     * rows turns the second case into the first, so only the first is solved directly.
+     */
+    static long largest(Tile[] tiles) {
+        var mirrored = new Tile[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            mirrored[i] = new Tile(tiles[i].col(), -tiles[i].row());
+        }
+        return Math.max(largestDiagonal(tiles), largestDiagonal(mirrored));
+    }
+
+    /**
+     * Best rectangle with the lower left corner on the lower left staircase (tiles with no other
+     * tile below and left of them) and the upper right one on the upper right staircase. Moving
+     * a corner onto its staircase never shrinks a rectangle, so the best pair is among these.
+     * Both staircases run by increasing col and decreasing row, which makes the area an inverse
+     * Monge array: the best upper right index never shrinks as the lower left index grows, and
+     * divide and conquer finds every row maximum with O(n log n) evaluations.
+     */
+    private static long largestDiagonal(Tile[] tiles) {
+        var sorted = tiles.clone();
+        Arrays.sort(sorted, Comparator.comparingInt(Tile::col).thenComparingInt(Tile::row));
+        var lower = new ArrayList<Tile>();
+        for (var tile : sorted) {
+            if (lower.isEmpty() || tile.row() < lower.getLast().row()) {
+                lower.add(tile);
             }
         }
-        terminal.println(part2);
+        var upper = new ArrayList<Tile>();
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            if (upper.isEmpty() || sorted[i].row() > upper.getLast().row()) {
+                upper.add(sorted[i]);
+            }
+        }
+        return largestDiagonal(lower.toArray(Tile[]::new), upper.reversed().toArray(Tile[]::new),
+                0, lower.size() - 1, 0, upper.size() - 1);
     }
 
-    private static HashSet<Tile> getOutsideTiles(Tile[] cornerTiles, HashSet<Tile> perimeterTiles) {
-        var outsideTiles = new HashSet<Tile>();
-        var stack = new ArrayDeque<Tile>();
-        var visited = new HashSet<Tile>();
-        var start = new Tile(Integer.MAX_VALUE, Integer.MAX_VALUE);
-        for (var tiles : cornerTiles) {
-            if (tiles.col() < start.col() || (tiles.col() == start.col() && tiles.row() < start.row())) {
-                start = tiles;
+    private static long largestDiagonal(Tile[] lower, Tile[] upper, int from, int to, int upperFrom, int upperTo) {
+        if (from > to) {
+            return 0;
+        }
+        var mid = (from + to) >>> 1;
+        var best = Long.MIN_VALUE;
+        var bestIndex = upperFrom;
+        for (int k = upperFrom; k <= upperTo; k++) {
+            // Negative when the pair is not ordered this way; a staircase pair is never reversed
+            var area = ((long) upper[k].col() - lower[mid].col() + 1) * ((long) upper[k].row() - lower[mid].row() + 1);
+            if (area > best) {
+                best = area;
+                bestIndex = k;
             }
         }
-        stack.push(new Tile(start.col() - 1, start.row() - 1));
-        while (!stack.isEmpty()) {
-            var current = stack.pop();
-            if (perimeterTiles.contains(current) || visited.contains(current)) {
-                continue;
+        best = Math.max(best, largestDiagonal(lower, upper, from, mid - 1, upperFrom, bestIndex));
+        return Math.max(best, largestDiagonal(lower, upper, mid + 1, to, bestIndex, upperTo));
+    }
+
+    /**
+     * Number of corner pairs whose rectangle the oracle accepts. Used by {@code Measure} to
+     * compare oracles on a {@link #histogram} polygon.
+     */
+    static int countValid(Floor floor, Oracle oracle) {
+        var corners = floor.corners();
+        var valid = 0;
+        for (int i = 0; i < corners.length; i++) {
+            for (int j = i + 1; j < corners.length; j++) {
+                if (oracle.isValid(corners[i], corners[j])) {
+                    valid++;
+                }
             }
-            visited.add(current);
-            var neighborTiles = current.neighbors();
-            var foundPerimeter = false;
-            for (var neighbor : neighborTiles) {
-                if (perimeterTiles.contains(neighbor)) {
-                    foundPerimeter = true;
-                    break;
+        }
+        return valid;
+    }
+
+    /**
+     * Histogram shaped polygon: {@code teeth} columns of random height standing on a common base.
+     */
+    static Tile[] histogram(int teeth, long seed) {
+        var random = new Random(seed);
+        var tiles = new Tile[2 * teeth + 2];
+        var col = 1;
+        var height = 0;
+        tiles[0] = new Tile(col, 0);
+        for (int t = 0; t < teeth; t++) {
+            var next = height;
+            while (next == height) {
+                next = 1 + random.nextInt(100_000);
+            }
+            height = next;
+            tiles[2 * t + 1] = new Tile(col, height);
+            col += 2 + random.nextInt(1_000);
+            tiles[2 * t + 2] = new Tile(col, height);
+        }
+        tiles[tiles.length - 1] = new Tile(col, 0);
+        return tiles;
+    }
+
+    /**
+     * Tells whether the rectangle spanned by two corner tiles contains no outside tile. Corner
+     * tiles are compressed or original, whichever coordinates the oracle was built on.
+     */
+    interface Oracle {
+        boolean isValid(Tile a, Tile b);
+
+        /**
+         * Upper bound on the area of any valid rectangle with a corner at the given corner tile.
+         */
+        default long bound(Tile corner) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 2D prefix sums of outside tiles over the compressed grid: {@code sums[r][c]} counts the
+     * outside tiles in rows {@code [0, r)} and cols {@code [0, c)}, so any rectangle is counted
+     * with four lookups.
+     */
+    static class PrefixSums implements Oracle {
+        private final int[][] sums;
+
+        PrefixSums(Floor floor) {
+            var outside = floor.outside();
+            var rows = outside.height();
+            var cols = outside.width();
+            this.sums = new int[rows + 1][cols + 1];
+            for (int r = 0; r < rows; r++) {
+                var inRow = 0;
+                for (int c = 0; c < cols; c++) {
+                    if (outside.get(c, r)) {
+                        inRow++;
+                    }
+                    sums[r + 1][c + 1] = sums[r][c + 1] + inRow;
                 }
             }
-            if (!foundPerimeter) {
-                continue;
+        }
+
+        @Override
+        public boolean isValid(Tile a, Tile b) {
+            var minCol = Math.min(a.col(), b.col());
+            var maxCol = Math.max(a.col(), b.col()) + 1;
+            var minRow = Math.min(a.row(), b.row());
+            var maxRow = Math.max(a.row(), b.row()) + 1;
+            return sums[maxRow][maxCol] - sums[minRow][maxCol] - sums[maxRow][minCol] + sums[minRow][minCol] == 0;
+        }
+    }
+
+    /**
+     * Outside tiles indexed by column, each column holding its sorted rows. A check walks every
+     * column of the rectangle.
+     */
+    static class ColumnIndex implements Oracle {
+        private final NavigableMap<Integer, NavigableSet<Integer>> columnIndex;
+
+        ColumnIndex(Floor floor) {
+            this.columnIndex = buildColumnIndex(floor.outside());
+        }
+
+        @Override
+        public boolean isValid(Tile a, Tile b) {
+            var minCol = Math.min(a.col(), b.col());
+            var maxCol = Math.max(a.col(), b.col());
+            var minRow = Math.min(a.row(), b.row());
+            var maxRow = Math.max(a.row(), b.row());
+            var sub = columnIndex.subMap(minCol, true, maxCol, true);
+            for (var entry : sub.entrySet()) {
+                NavigableSet<Integer> rows = entry.getValue();
+                Integer r = rows.ceiling(minRow);
+                if (r != null && r <= maxRow) {
+                    return false;
+                }
             }
-            outsideTiles.add(current);
-            for (var neighbor : neighborTiles) {
-                stack.push(neighbor);
+            return true;
+        }
+
+        private static NavigableMap<Integer, NavigableSet<Integer>> buildColumnIndex(Bitmap outside) {
+            var index = new TreeMap<Integer, NavigableSet<Integer>>();
+            for (int r = 0; r < outside.height(); r++) {
+                for (int c = outside.nextSet(0, r); c < outside.width(); c = outside.nextSet(c + 1, r)) {
+                    index.computeIfAbsent(c, _ -> new TreeSet<>()).add(r);
+                }
             }
+            return index;
         }
-        return outsideTiles;
     }
 
-    private static boolean isValid(Tile a, Tile b, NavigableMap<Integer, NavigableSet<Integer>> columnIndex) {
-        var minCol = Math.min(a.col(), b.col());
-        var maxCol = Math.max(a.col(), b.col());
-        var minRow = Math.min(a.row(), b.row());
-        var maxRow = Math.max(a.row(), b.row());
-        var sub = columnIndex.subMap(minCol, true, maxCol, true);
-        for (var entry : sub.entrySet()) {
-            NavigableSet<Integer> rows = entry.getValue();
-            Integer r = rows.ceiling(minRow);
-            if (r != null && r <= maxRow) {
-                return false;
+    /**
+     * Oracle on the original coordinates for shapes too large to rasterize, in O(n log n) memory.
+     * A rectangle between two red tiles holds an outside tile iff it holds one next to the loop:
+     * walking from an outside tile towards a corner of the rectangle reaches the loop first. Such
+     * tiles lie one step past an edge on its outer side without being on the loop themselves, so
+     * they form O(n) segments, and a check asks whether any of them lies in the rectangle.
+     */
+    static class Rim implements Oracle {
+        // Rim segments along rows and along cols, sorted
+        private final Segment[] rimRows;
+
+        private final Segment[] rimCols;
+
+        private final SegmentIndex rows;
+
+        private final SegmentIndex cols;
+
+        Rim(Tile[] originalTiles) {
+            var n = originalTiles.length;
+            var horizontal = new ArrayList<Segment>();
+            var vertical = new ArrayList<Segment>();
+            for (int i = 0; i < n; i++) {
+                var a = originalTiles[i];
+                var b = originalTiles[(i + 1) % n];
+                if (a.row() == b.row()) {
+                    horizontal.add(new Segment(a.row(), Math.min(a.col(), b.col()), Math.max(a.col(), b.col())));
+                } else if (a.col() == b.col()) {
+                    vertical.add(new Segment(a.col(), Math.min(a.row(), b.row()), Math.max(a.row(), b.row())));
+                } else {
+                    throw new IllegalArgumentException("Consecutive red tiles must share a row or a col: " + a + ", " + b);
+                }
             }
+            var loopRows = horizontal.stream().sorted(Segment.ORDER).toArray(Segment[]::new);
+            var loopCols = vertical.stream().sorted(Segment.ORDER).toArray(Segment[]::new);
+
+            // The outer normal of an edge is its direction turned right for a counterclockwise loop
+            var outward = orientation(originalTiles);
+            var rimRows = new ArrayList<Segment>();
+            var rimCols = new ArrayList<Segment>();
+            for (int i = 0; i < n; i++) {
+                var a = originalTiles[i];
+                var b = originalTiles[(i + 1) % n];
+                var dc = Integer.signum(b.col() - a.col());
+                var dr = Integer.signum(b.row() - a.row());
+                if (dr == 0 && dc != 0) {
+                    var row = a.row() - outward * dc;
+                    addRim(rimRows, loopRows, loopCols, row, Math.min(a.col(), b.col()), Math.max(a.col(), b.col()));
+                } else if (dr != 0) {
+                    var col = a.col() + outward * dr;
+                    addRim(rimCols, loopCols, loopRows, col, Math.min(a.row(), b.row()), Math.max(a.row(), b.row()));
+                }
+            }
+            this.rimRows = rimRows.stream().sorted(Segment.ORDER).toArray(Segment[]::new);
+            this.rimCols = rimCols.stream().sorted(Segment.ORDER).toArray(Segment[]::new);
+            this.rows = new SegmentIndex(this.rimRows);
+            this.cols = new SegmentIndex(this.rimCols);
+        }
+
+        @Override
+        public boolean isValid(Tile a, Tile b) {
+            var minCol = Math.min(a.col(), b.col());
+            var maxCol = Math.max(a.col(), b.col());
+            var minRow = Math.min(a.row(), b.row());
+            var maxRow = Math.max(a.row(), b.row());
+            return !rows.intersects(minRow, maxRow, minCol, maxCol) && !cols.intersects(minCol, maxCol, minRow, maxRow);
+        }
+
+        /**
+         * The edges of a valid rectangle at the corner stay inside, so they end before the first
+         * rim tile on the corner's row and col; the best quadrant bounds the area. The loop is
+         * closed, so there is a rim tile on every side.
+         */
+        @Override
+        public long bound(Tile corner) {
+            int col = corner.col(), row = corner.row();
+            var width = Math.max(after(rimRows, cols, row, col) - col, col - before(rimRows, cols, row, col));
+            var height = Math.max(after(rimCols, rows, col, row) - row, row - before(rimCols, rows, col, row));
+            return width * height;
+        }
+
+        // First rim tile after position on a line, from the segments along the line and across it
+        private static long after(Segment[] along, SegmentIndex across, int line, int position) {
+            var i = first(along, line, position);
+            var next = i < along.length && along[i].line() == line ? along[i].from() : Integer.MAX_VALUE;
+            return Math.min(next, across.nextLine(position + 1, line));
+        }
+
+        // Last rim tile before position on a line, from the segments along the line and across it
+        private static long before(Segment[] along, SegmentIndex across, int line, int position) {
+            var i = first(along, line, position) - 1;
+            var previous = i >= 0 && along[i].line() == line ? along[i].to() : Integer.MIN_VALUE;
+            return Math.max(previous, across.previousLine(position - 1, line));
+        }
+
+        /**
+         * 1 if the loop runs counterclockwise, taking cols as x and rows as y, -1 otherwise. The
+         * turn at the lowest tile of the lowest row is always a true corner of the loop.
+         */
+        private static int orientation(Tile[] tiles) {
+            var m = 0;
+            for (int i = 1; i < tiles.length; i++) {
+                if (tiles[i].row() < tiles[m].row() || tiles[i].row() == tiles[m].row() && tiles[i].col() < tiles[m].col()) {
+                    m = i;
+                }
+            }
+            var previous = tiles[(m + tiles.length - 1) % tiles.length];
+            var next = tiles[(m + 1) % tiles.length];
+            var turn = Integer.signum(tiles[m].col() - previous.col()) * Integer.signum(next.row() - tiles[m].row())
+                    - Integer.signum(tiles[m].row() - previous.row()) * Integer.signum(next.col() - tiles[m].col());
+            return turn > 0 ? 1 : -1;
+        }
+
+        /**
+         * Adds the tiles of {@code [from, to]} on a line that are not on the loop. Inside the span
+         * the loop can only run along the line itself, since an edge crossing it would have to
+         * touch the edge the span lies next to; at the ends an edge turning outwards may cross it.
+         */
+        private static void addRim(List<Segment> rim, Segment[] parallel, Segment[] crossing, int line, int from, int to) {
+            if (covers(crossing, from, line)) {
+                from++;
+            }
+            if (covers(crossing, to, line)) {
+                to--;
+            }
+            for (var i = first(parallel, line, from); from <= to && i < parallel.length
+                    && parallel[i].line() == line && parallel[i].from() <= to; i++) {
+                if (parallel[i].from() > from) {
+                    rim.add(new Segment(line, from, parallel[i].from() - 1));
+                }
+                from = parallel[i].to() + 1;
+            }
+            if (from <= to) {
+                rim.add(new Segment(line, from, to));
+            }
+        }
+
+        private static boolean covers(Segment[] segments, int line, int position) {
+            var i = first(segments, line, position);
+            return i < segments.length && segments[i].line() == line && segments[i].from() <= position;
+        }
+
+        // First segment on a later line, or on the line and ending at or after position
+        private static int first(Segment[] segments, int line, int position) {
+            int lo = 0, hi = segments.length;
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                var segment = segments[mid];
+                if (segment.line() < line || segment.line() == line && segment.to() < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
         }
-        return true;
     }
 
-    private static NavigableMap<Integer, NavigableSet<Integer>> buildColumnIndex(Set<Tile> outside) {
-        var index = new TreeMap<Integer, NavigableSet<Integer>>();
-        for (var t : outside) {
-            index.computeIfAbsent(t.col(), _ -> new TreeSet<>()).add(t.row());
+    /**
+     * Tiles {@code [from, to]} along a row or a col, {@code line} being the other coordinate.
+     * Segments on one line never overlap, so ordered by start they are ordered by end as well.
+     */
+    record Segment(int line, int from, int to) {
+        static final Comparator<Segment> ORDER = Comparator.comparingInt(Segment::line).thenComparingInt(Segment::from);
+    }
+
+    /**
+     * Tells whether any segment lies on a line in {@code [fromLine, toLine]} and overlaps
+     * {@code [from, to]}. A merge sort tree over the segments ordered by line keeps, in every
+     * node, the starts of its segments in order with the running maximum of their ends, so a
+     * query visits O(log n) nodes with one binary search each.
+     */
+    static class SegmentIndex {
+        private final int[] lines;
+
+        private final int leaves;
+
+        private final int[][] froms;
+
+        private final int[][] maxTos;
+
+        SegmentIndex(Segment[] sorted) {
+            var n = sorted.length;
+            var leaves = 1;
+            while (leaves < n) {
+                leaves <<= 1;
+            }
+            this.leaves = leaves;
+            this.lines = new int[n];
+            this.froms = new int[2 * leaves][];
+            this.maxTos = new int[2 * leaves][];
+            for (int i = 0; i < leaves; i++) {
+                if (i < n) {
+                    lines[i] = sorted[i].line();
+                    froms[leaves + i] = new int[]{sorted[i].from()};
+                    maxTos[leaves + i] = new int[]{sorted[i].to()};
+                } else {
+                    froms[leaves + i] = new int[0];
+                    maxTos[leaves + i] = new int[0];
+                }
+            }
+            for (int node = leaves - 1; node > 0; node--) {
+                merge(node);
+            }
+            for (var tos : maxTos) {
+                for (int i = 1; tos != null && i < tos.length; i++) {
+                    tos[i] = Math.max(tos[i], tos[i - 1]);
+                }
+            }
+        }
+
+        // Merges the children of a node by start, carrying the ends along
+        private void merge(int node) {
+            int[] leftFroms = froms[2 * node], leftTos = maxTos[2 * node];
+            int[] rightFroms = froms[2 * node + 1], rightTos = maxTos[2 * node + 1];
+            var length = leftFroms.length + rightFroms.length;
+            var nodeFroms = new int[length];
+            var nodeTos = new int[length];
+            for (int k = 0, i = 0, j = 0; k < length; k++) {
+                if (j == rightFroms.length || i < leftFroms.length && leftFroms[i] <= rightFroms[j]) {
+                    nodeFroms[k] = leftFroms[i];
+                    nodeTos[k] = leftTos[i++];
+                } else {
+                    nodeFroms[k] = rightFroms[j];
+                    nodeTos[k] = rightTos[j++];
+                }
+            }
+            froms[node] = nodeFroms;
+            maxTos[node] = nodeTos;
+        }
+
+        boolean intersects(int fromLine, int toLine, int from, int to) {
+            var l = bound(lines, fromLine) + leaves;
+            var r = bound(lines, toLine + 1L) + leaves;
+            for (; l < r; l >>>= 1, r >>>= 1) {
+                if ((l & 1) != 0 && overlaps(l++, from, to)) {
+                    return true;
+                }
+                if ((r & 1) != 0 && overlaps(--r, from, to)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Smallest line at or after {@code fromLine} with a segment containing {@code position},
+         * {@link Integer#MAX_VALUE} if there is none.
+         */
+        int nextLine(int fromLine, int position) {
+            var index = next(1, 0, leaves, bound(lines, fromLine), position);
+            return index < 0 ? Integer.MAX_VALUE : lines[index];
+        }
+
+        /**
+         * Largest line at or before {@code toLine} with a segment containing {@code position},
+         * {@link Integer#MIN_VALUE} if there is none.
+         */
+        int previousLine(int toLine, int position) {
+            var index = previous(1, 0, leaves, bound(lines, toLine + 1L), position);
+            return index < 0 ? Integer.MIN_VALUE : lines[index];
+        }
+
+        // First segment in [start, hi) under the node, of those in [lo, hi), containing position
+        private int next(int node, int lo, int hi, int start, int position) {
+            if (hi <= start || !overlaps(node, position, position)) {
+                return -1;
+            }
+            if (node >= leaves) {
+                return lo;
+            }
+            var mid = (lo + hi) >>> 1;
+            var found = next(2 * node, lo, mid, start, position);
+            return found >= 0 ? found : next(2 * node + 1, mid, hi, start, position);
+        }
+
+        // Last segment in [lo, end) under the node, of those in [lo, hi), containing position
+        private int previous(int node, int lo, int hi, int end, int position) {
+            if (lo >= end || !overlaps(node, position, position)) {
+                return -1;
+            }
+            if (node >= leaves) {
+                return lo;
+            }
+            var mid = (lo + hi) >>> 1;
+            var found = previous(2 * node + 1, mid, hi, end, position);
+            return found >= 0 ? found : previous(2 * node, lo, mid, end, position);
+        }
+
+        private boolean overlaps(int node, int from, int to) {
+            var starting = bound(froms[node], to + 1L);
+            return starting > 0 && maxTos[node][starting - 1] >= from;
+        }
+
+        // Number of values below key in a sorted array
+        private static int bound(int[] values, long key) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                if (values[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * The shape on a compressed grid. {@code rows} and {@code cols} map compressed indices to
+     * original coordinates and back; corners are the red tiles mapped to compressed indices.
+     * {@code perimeter} is the number of tiles on the loop and {@code outside} marks every tile
+     * of the compressed grid that lies outside the loop, including tiles walled off where the
+     * loop runs alongside itself with no tile in between.
+     */
+    record Floor(Compression rows, Compression cols, Tile[] corners, long perimeter, Bitmap outside) {
+        static Floor of(Tile[] originalTiles) {
+            // Compress coordinates
+            var originalCols = new int[originalTiles.length];
+            var originalRows = new int[originalTiles.length];
+            for (int i = 0; i < originalTiles.length; i++) {
+                originalCols[i] = originalTiles[i].col();
+                originalRows[i] = originalTiles[i].row();
+            }
+            var rows = Compression.of(originalRows, true, 0);
+            var cols = Compression.of(originalCols, true, 0);
+            var cornerTiles = new Tile[originalTiles.length];
+            for (int i = 0; i < originalTiles.length; i++) {
+                cornerTiles[i] = new Tile(cols.index(originalCols[i]), rows.index(originalRows[i]));
+            }
+
+            var outside = new Bitmap(cols.size(), rows.size());
+            rasterize(outside, cornerTiles, true);
+            var perimeter = outside.cardinality();
+
+            // Rasterize the loop, flood the outside around it, then take the loop out again. This
+            // runs at double resolution, where a cell between every two tiles keeps the loop from
+            // sealing off what lies between two of its edges running side by side
+            var fine = new Bitmap(2 * cols.size() - 1, 2 * rows.size() - 1);
+            var fineTiles = new Tile[cornerTiles.length];
+            for (int i = 0; i < cornerTiles.length; i++) {
+                fineTiles[i] = new Tile(2 * cornerTiles[i].col(), 2 * cornerTiles[i].row());
+            }
+            rasterize(fine, fineTiles, true);
+            fillOutside(fine);
+            rasterize(fine, fineTiles, false);
+            outside = new Bitmap(cols.size(), rows.size());
+            for (int r = 0; r < rows.size(); r++) {
+                for (int c = fine.nextSet(0, 2 * r); c < fine.width(); c = fine.nextSet(c + 1, 2 * r)) {
+                    if ((c & 1) == 0) {
+                        outside.set(c >>> 1, r, true);
+                    }
+                }
+            }
+
+            return new Floor(rows, cols, cornerTiles, perimeter, outside);
         }
-        return index;
     }
 
-    private static HashSet<Tile> getPerimeterTiles(Tile[] cornerTiles) {
-        var perimeterTails = new HashSet<Tile>();
+    private static void rasterize(Bitmap bitmap, Tile[] cornerTiles, boolean value) {
         for (int i = 0; i < cornerTiles.length; i++) {
             int j = (i + 1) % cornerTiles.length;
             if (cornerTiles[i].col() - cornerTiles[j].col() == 0) {
                 var min = Math.min(cornerTiles[i].row(), cornerTiles[j].row());
                 var max = Math.max(cornerTiles[i].row(), cornerTiles[j].row());
                 for (int k = min; k <= max; k++) {
-                    perimeterTails.add(new Tile(cornerTiles[i].col(), k));
+                    bitmap.set(cornerTiles[i].col(), k, value);
                 }
             } else {
                 var min = Math.min(cornerTiles[i].col(), cornerTiles[j].col());
                 var max = Math.max(cornerTiles[i].col(), cornerTiles[j].col());
-                for (int k = min; k <= max; k++) {
-                    perimeterTails.add(new Tile(k, cornerTiles[i].row()));
+                bitmap.set(min, max, cornerTiles[i].row(), value);
+            }
+        }
+    }
+
+    /**
+     * Scanline flood fill from the top left tile, which always lies outside: compression keeps a
+     * coordinate just beyond every red tile, so the whole border of the grid is outside. Each
+     * popped seed is widened to the longest clear span of its row, and one seed per clear run is
+     * pushed from the rows above and below. Runs reaching one column past the span are included,
+     * so the fill passes diagonal gaps like the 8-neighbour walk it replaces.
+     */
+    private static void fillOutside(Bitmap bitmap) {
+        var width = bitmap.width();
+        var height = bitmap.height();
+        var seeds = new IntStack();
+        seeds.push(0);
+        seeds.push(0);
+        while (!seeds.isEmpty()) {
+            var row = seeds.pop();
+            var col = seeds.pop();
+            if (bitmap.get(col, row)) {
+                continue;
+            }
+            var from = bitmap.previousSet(col, row) + 1;
+            var to = bitmap.nextSet(col, row) - 1;
+            bitmap.set(from, to, row, true);
+            var lo = Math.max(from - 1, 0);
+            var hi = Math.min(to + 1, width - 1);
+            for (var next = row - 1; next <= row + 1; next += 2) {
+                if (next < 0 || next >= height) {
+                    continue;
+                }
+                for (int c = bitmap.nextClear(lo, next); c <= hi; c = bitmap.nextClear(bitmap.nextSet(c, next), next)) {
+                    seeds.push(c);
+                    seeds.push(next);
                 }
             }
         }
-        return perimeterTails;
+    }
+
+    /**
+     * One bit per tile of the compressed grid, row by row, every row starting on a fresh word.
+     */
+    static class Bitmap {
+        private final int width;
+
+        private final int height;
+
+        private final int stride;
+
+        private final long[] words;
+
+        Bitmap(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.stride = (width + 63) >>> 6;
+            this.words = new long[Math.multiplyExact(stride, height)];
+        }
+
+        int width() {
+            return width;
+        }
+
+        int height() {
+            return height;
+        }
+
+        boolean get(int col, int row) {
+            return (words[row * stride + (col >>> 6)] & (1L << col)) != 0;
+        }
+
+        void set(int col, int row, boolean value) {
+            if (value) {
+                words[row * stride + (col >>> 6)] |= 1L << col;
+            } else {
+                words[row * stride + (col >>> 6)] &= ~(1L << col);
+            }
+        }
+
+        /**
+         * Sets or clears cols {@code [from, to]} of a row.
+         */
+        void set(int from, int to, int row, boolean value) {
+            var base = row * stride;
+            for (int w = from >>> 6; w <= to >>> 6; w++) {
+                var mask = -1L;
+                if (w == from >>> 6) {
+                    mask &= -1L << from;
+                }
+                if (w == to >>> 6) {
+                    mask &= -1L >>> (63 - (to & 63));
+                }
+                if (value) {
+                    words[base + w] |= mask;
+                } else {
+                    words[base + w] &= ~mask;
+                }
+            }
+        }
+
+        /**
+         * First set col at or after {@code col}, {@code width} if there is none.
+         */
+        int nextSet(int col, int row) {
+            return next(col, row, 0L);
+        }
+
+        /**
+         * First clear col at or after {@code col}, {@code width} if there is none.
+         */
+        int nextClear(int col, int row) {
+            return next(col, row, -1L);
+        }
+
+        private int next(int col, int row, long flip) {
+            if (col >= width) {
+                return width;
+            }
+            var base = row * stride;
+            var w = col >>> 6;
+            var bits = (words[base + w] ^ flip) & (-1L << col);
+            while (bits == 0) {
+                if (++w == stride) {
+                    return width;
+                }
+                bits = words[base + w] ^ flip;
+            }
+            return Math.min((w << 6) + Long.numberOfTrailingZeros(bits), width);
+        }
+
+        /**
+         * Last set col at or before {@code col}, -1 if there is none.
+         */
+        int previousSet(int col, int row) {
+            var base = row * stride;
+            var w = col >>> 6;
+            var bits = words[base + w] & (-1L >>> (63 - (col & 63)));
+            while (bits == 0) {
+                if (--w < 0) {
+                    return -1;
+                }
+                bits = words[base + w];
+            }
+            return (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+        }
+
+        long cardinality() {
+            var count = 0L;
+            for (var word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+    }
+
+    private static class IntStack {
+        private int[] values = new int[16];
+
+        private int size;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
     }
 
     record Pair(int i, int j, long area) implements Comparable<Pair> {
@@ -173,19 +831,6 @@ public class Day09 {
             return Math.multiplyFull(Math.abs(this.col - other.col) + 1, Math.abs(this.row - other.row) + 1);
         }
 
-        public List<Tile> neighbors() {
-            return Arrays.asList(
-                    new Tile(col + 1, row + 1),
-                    new Tile(col - 1, row + 1),
-                    new Tile(col + 1, row - 1),
-                    new Tile(col - 1, row - 1),
-                    new Tile(col + 1, row),
-                    new Tile(col - 1, row),
-                    new Tile(col, row + 1),
-                    new Tile(col, row - 1)
-            );
-        }
-
         public static Tile parse(String line) {
             var parts = line.split(",");
             return new Tile(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
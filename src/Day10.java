@@ -2,10 +2,13 @@ import util.Lines;
 import util.Numbers;
 import util.Solver;
 import util.Terminal;
+import util.XorSystem;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToIntFunction;
 
 public class Day10 {
     public static void main() throws IOException {
@@ -20,13 +23,34 @@ public class Day10 {
         terminal.printf("Min counters per machine: %d%n", minCounters.orElse(0));
         terminal.printf("Max counters per machine: %d%n", maxCounters.orElse(0));
 
-        var part1 = machines.stream().mapToInt(Machine::shortestStepsToStart).sum();
+        var part1 = sum(machines, Machine::shortestStepsToStart);
         terminal.println(part1);
-        var part2 = machines.stream().mapToInt(Machine::shortestStepsToConfigureEnergyLevels).sum();
+        var part2 = sum(machines, machine -> machine.shortestStepsToConfigureEnergyLevels(Solver.Search.BRANCH_AND_BOUND));
         terminal.println(part2);
     }
 
-    private static class Machine {
+    // Fewer machines than this are evaluated on the calling thread
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    /**
+     * Sum of the steps of every machine. Machines share no state, so each one becomes its own
+     * task on the common fork join pool: a worker stuck in a long search only holds that machine
+     * while the others steal the rest. Tasks are forked one at a time by decreasing number of
+     * buttons and workers take forked tasks oldest first, so the likely slow searches start first
+     * instead of trailing at the end.
+     */
+    static long sum(List<Machine> machines, ToIntFunction<Machine> steps) {
+        if (machines.size() < PARALLEL_THRESHOLD) {
+            return machines.stream().mapToLong(steps::applyAsInt).sum();
+        }
+        var tasks = machines.stream()
+                .sorted(Comparator.comparingInt(Machine::buttons).reversed())
+                .map(machine -> ForkJoinTask.adapt(() -> steps.applyAsInt(machine)).fork())
+                .toList();
+        return tasks.stream().mapToLong(ForkJoinTask::join).sum();
+    }
+
+    static class Machine {
         private static final char ON = '#';
 
         private static final char OFF = '.';
@@ -37,8 +61,6 @@ public class Day10 {
 
         private final int[] joltageLevels;
 
-        private int minSteps = Integer.MAX_VALUE;
-
         private Machine(int started, List<Button> buttons, int[] joltageLevels) {
             this.started = started;
             this.buttons = buttons;
@@ -57,32 +79,28 @@ public class Day10 {
             return this.joltageLevels.length;
         }
 
-        public int shortestStepsToStart() {
-            this.minSteps = Integer.MAX_VALUE;
-            dfs_part1(0, null, 0);
-            return this.minSteps;
+        public int buttons() {
+            return this.buttons.size();
         }
 
-        private static final int MAX_DEPTH_PART1 = 10;
-
-        private void dfs_part1(int current, Button previous, int depth) {
-            if (depth >= this.minSteps || depth > MAX_DEPTH_PART1) {
-                return;
-            }
-            if (current == this.started) {
-                this.minSteps = depth;
-                return;
-            }
-            for (var button : this.buttons) {
-                if (button == previous) {
-                    continue;
-                }
-                int next = current ^ button.toggle();
-                dfs_part1(next, button, depth + 1);
+        /**
+         * Fewest presses lighting exactly the started indicators. Pressing a button twice undoes
+         * it, so this is the smallest set of buttons whose toggles xor to the started pattern.
+         */
+        public int shortestStepsToStart() {
+            var toggles = this.buttons.stream().mapToLong(Button::toggle).toArray();
+            var presses = XorSystem.of(toggles).minimum(this.started);
+            if (presses.isEmpty()) {
+                throw new IllegalStateException("No solution found");
             }
+            return Long.bitCount(presses.getAsLong());
         }
 
         public int shortestStepsToConfigureEnergyLevels() {
+            return shortestStepsToConfigureEnergyLevels(Solver.Search.BACKTRACK);
+        }
+
+        public int shortestStepsToConfigureEnergyLevels(Solver.Search search) {
             var rows = this.joltageLevels.length;
             var cols = this.buttons.size() + 1;
             var matrix = new int[rows][cols];
@@ -95,13 +113,24 @@ public class Day10 {
                     }
                 }
             }
-            var solution = Solver.findMinSumIntegerSolution(matrix);
+            var solution = Solver.findMinSumIntegerSolution(matrix, search);
             if (solution == null) {
                 throw new IllegalStateException("No solution found");
             }
             return Arrays.stream(solution).sum();
         }
 
+        /**
+         * Same as {@link #shortestStepsToConfigureEnergyLevels()}, solved by {@link Halving}.
+         */
+        public int shortestStepsByHalving() {
+            var presses = new Halving(this.buttons, this.joltageLevels.length).presses(this.joltageLevels);
+            if (presses == Halving.UNREACHABLE) {
+                throw new IllegalStateException("No solution found");
+            }
+            return presses;
+        }
+
         public static Machine parse(String line) {
             var parts = line.split("\\s");
             var indicators = parts[0];
@@ -135,6 +164,128 @@ public class Day10 {
         return flags | (1 << position);
     }
 
+    /**
+     * Random machines whose levels come from pressing every button up to 200 times, so they are
+     * always reachable. Each has at most one button more than counters. Used by {@code Measure}
+     * to compare the {@link Solver} searches with {@link Machine#shortestStepsByHalving()}.
+     */
+    static List<Machine> generate(int count, long seed) {
+        var random = new Random(seed);
+        var machines = new ArrayList<Machine>();
+        for (int m = 0; m < count; m++) {
+            var counters = 4 + random.nextInt(7);
+            var buttons = new ArrayList<Button>();
+            var levels = new int[counters];
+            for (int b = counters - 3 + random.nextInt(5); b > 0; b--) {
+                var toggle = 0;
+                while (toggle == 0 || toggle == (1 << counters) - 1) {
+                    toggle = random.nextInt(1 << counters);
+                }
+                var presses = random.nextInt(201);
+                var indices = new int[Integer.bitCount(toggle)];
+                for (int i = 0, k = 0; i < counters; i++) {
+                    if ((toggle & (1 << i)) != 0) {
+                        indices[k++] = i;
+                        levels[i] += presses;
+                    }
+                }
+                buttons.add(new Button(toggle, indices));
+            }
+            machines.add(new Machine(0, buttons, levels));
+        }
+        return machines;
+    }
+
+    /**
+     * Fewest presses reaching some joltage levels, by halving them. In any solution the buttons
+     * pressed an odd number of times set the parity of every counter; pressing each of those once
+     * leaves even levels reached by pressing every button an even number of times, that is, half
+     * the levels reached twice. So the answer is the best over the subsets of buttons matching the
+     * parity of the levels of the subset size plus twice the answer for the halved remainder.
+     * Subsets are grouped by parity pattern once per machine and answers are memoized by levels.
+     */
+    static class Halving {
+        static final int UNREACHABLE = Integer.MAX_VALUE;
+
+        // Levels reached by pressing each button of a subset once, grouped by their parity pattern
+        private final List<List<Subset>> byParity;
+
+        private final Map<Levels, Integer> memo = new HashMap<>();
+
+        Halving(List<Button> buttons, int counters) {
+            this.byParity = new ArrayList<>();
+            for (int p = 0; p < 1 << counters; p++) {
+                byParity.add(new ArrayList<>());
+            }
+            for (int subset = 0; subset < 1 << buttons.size(); subset++) {
+                var levels = new int[counters];
+                var parity = 0;
+                for (int b = 0; b < buttons.size(); b++) {
+                    if ((subset & (1 << b)) != 0) {
+                        var button = buttons.get(b);
+                        parity ^= button.toggle();
+                        for (var index : button.indices()) {
+                            levels[index]++;
+                        }
+                    }
+                }
+                byParity.get(parity).add(new Subset(Integer.bitCount(subset), levels));
+            }
+        }
+
+        int presses(int[] levels) {
+            var parity = 0;
+            var zero = true;
+            for (int i = 0; i < levels.length; i++) {
+                parity |= (levels[i] & 1) << i;
+                zero &= levels[i] == 0;
+            }
+            if (zero) {
+                return 0;
+            }
+            var key = new Levels(levels.clone());
+            var known = memo.get(key);
+            if (known != null) {
+                return known;
+            }
+            var best = UNREACHABLE;
+            var half = new int[levels.length];
+            next:
+            for (var subset : byParity.get(parity)) {
+                if (subset.size() >= best) {
+                    continue;
+                }
+                for (int i = 0; i < levels.length; i++) {
+                    if (subset.levels()[i] > levels[i]) {
+                        continue next;
+                    }
+                    half[i] = (levels[i] - subset.levels()[i]) >> 1;
+                }
+                var rest = presses(half);
+                if (rest != UNREACHABLE) {
+                    best = Math.min(best, subset.size() + 2 * rest);
+                }
+            }
+            memo.put(key, best);
+            return best;
+        }
+
+        private record Subset(int size, int[] levels) {
+        }
+
+        private record Levels(int[] values) {
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Levels other && Arrays.equals(values, other.values);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(values);
+            }
+        }
+    }
+
     record Button(int toggle, int[] indices) {
         @Override
         public String toString() {
@@ -1,6 +1,10 @@
+import util.Solver;
+
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 final String DEFAULT_LOOPS = "10";
@@ -10,15 +14,50 @@ final Solution[] SOLUTIONS = {
         Day07::main, Day08::main, Day09::main, Day10::main, Day11::main, Day12::main,
 };
 
+final Map<String, Solution> BENCHMARKS = Map.of(
+        "09-prefix-sums", () -> System.out.println(Day09.countValid(floor(), new Day09.PrefixSums(floor()))),
+        "09-column-index", () -> System.out.println(Day09.countValid(floor(), new Day09.ColumnIndex(floor()))),
+        "10-solver", () -> System.out.println(Day10.sum(machines(), Day10.Machine::shortestStepsToConfigureEnergyLevels)),
+        "10-parallel-backtrack", () -> System.out.println(Day10.sum(machines(), m -> m.shortestStepsToConfigureEnergyLevels(Solver.Search.PARALLEL_BACKTRACK))),
+        "10-branch-and-bound", () -> System.out.println(Day10.sum(machines(), m -> m.shortestStepsToConfigureEnergyLevels(Solver.Search.BRANCH_AND_BOUND))),
+        "10-lattice", () -> System.out.println(Day10.sum(machines(), m -> m.shortestStepsToConfigureEnergyLevels(Solver.Search.LATTICE))),
+        "10-halving", () -> System.out.println(Day10.sum(machines(), Day10.Machine::shortestStepsByHalving))
+);
+
+// Generated benchmark inputs, built on first use so the warmup absorbs the cost
+Day09.Floor floor;
+
+List<Day10.Machine> machines;
+
+Day09.Floor floor() {
+    if (floor == null) {
+        floor = Day09.Floor.of(Day09.histogram(500, 9));
+    }
+    return floor;
+}
+
+List<Day10.Machine> machines() {
+    if (machines == null) {
+        machines = Day10.generate(100, 10);
+    }
+    return machines;
+}
+
 void main(String[] args) throws Exception {
     var out = System.out;
     System.setOut(new PrintStream(OutputStream.nullOutputStream()));
 
     var loops = Integer.parseInt(parameterValue(args, "--loops", DEFAULT_LOOPS));
-    int day = Integer.parseInt(args[args.length - 1]);
-    var solution = Objects.requireNonNull(SOLUTIONS[day - 1]);
-
-    out.printf("Day %02d solution benchmarking\n", day);
+    var target = args[args.length - 1];
+    Solution solution;
+    if (BENCHMARKS.containsKey(target)) {
+        solution = BENCHMARKS.get(target);
+        out.printf("Benchmark %s\n", target);
+    } else {
+        int day = Integer.parseInt(target);
+        solution = Objects.requireNonNull(SOLUTIONS[day - 1]);
+        out.printf("Day %02d solution benchmarking\n", day);
+    }
 
     out.print("Warming up...");
     var warmupLoops = Math.min(Math.max(loops / 10, 3), 100);
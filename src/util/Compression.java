@@ -0,0 +1,125 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Coordinate compression: the sorted distinct values of some coordinates, optionally together
+ * with the neighbours {@code v - 1} and {@code v + 1} of each one, numbered {@code 0..size-1}.
+ * Values are sorted in parallel and deduplicated in place. Lookups go through a dense table when
+ * the values span a range of at most {@value #DENSE_FACTOR} slots per value, and through a
+ * branchless binary search otherwise.
+ */
+public class Compression {
+    private static final int DENSE_FACTOR = 4;
+
+    private final long[] values;
+
+    private final int size;
+
+    // index + 1 of every value in [values[0], values[size - 1]], 0 if absent; null when sparse
+    private final int[] table;
+
+    private Compression(long[] values) {
+        Arrays.parallelSort(values);
+        var size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (size == 0 || values[i] != values[size - 1]) {
+                values[size++] = values[i];
+            }
+        }
+        this.values = values;
+        this.size = size;
+        this.table = size > 0 ? table(values, size) : null;
+    }
+
+    private static int[] table(long[] values, int size) {
+        var range = values[size - 1] - values[0] + 1;
+        if (range <= 0 || range > (long) size * DENSE_FACTOR || range > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+        var table = new int[(int) range];
+        for (int i = 0; i < size; i++) {
+            table[(int) (values[i] - values[0])] = i + 1;
+        }
+        return table;
+    }
+
+    /**
+     * Compresses {@code values}, plus their neighbours if asked, plus {@code extra} values taken
+     * as they are. The arrays are not modified.
+     */
+    public static Compression of(int[] values, boolean neighbours, long... extra) {
+        var all = new long[values.length * (neighbours ? 3 : 1) + extra.length];
+        var n = 0;
+        for (var value : values) {
+            all[n++] = value;
+            if (neighbours) {
+                all[n++] = value - 1L;
+                all[n++] = value + 1L;
+            }
+        }
+        System.arraycopy(extra, 0, all, n, extra.length);
+        return new Compression(all);
+    }
+
+    /**
+     * Same as {@link #of(int[], boolean, long...)}; neighbours beyond the range of {@code long}
+     * are left out.
+     */
+    public static Compression of(long[] values, boolean neighbours, long... extra) {
+        var all = new long[values.length * (neighbours ? 3 : 1) + extra.length];
+        var n = 0;
+        for (var value : values) {
+            all[n++] = value;
+            if (neighbours) {
+                all[n++] = value > Long.MIN_VALUE ? value - 1 : value;
+                all[n++] = value < Long.MAX_VALUE ? value + 1 : value;
+            }
+        }
+        System.arraycopy(extra, 0, all, n, extra.length);
+        return new Compression(all);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Original value of a compressed index.
+     */
+    public long value(int index) {
+        return values[Objects.checkIndex(index, size)];
+    }
+
+    /**
+     * Compressed index of a value, which must be one of the compressed values.
+     */
+    public int index(long value) {
+        var index = search(value);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a compressed value: " + value);
+        }
+        return index;
+    }
+
+    /**
+     * Compressed index of a value, or -1 if it is not one of the compressed values.
+     */
+    public int search(long value) {
+        if (size == 0 || value < values[0] || value > values[size - 1]) {
+            return -1;
+        }
+        if (table != null) {
+            return table[(int) (value - values[0])] - 1;
+        }
+        // Halve the window without branching on the comparison
+        var base = 0;
+        for (int length = size; length > 1; ) {
+            var half = length >>> 1;
+            base = values[base + half] <= value ? base + half : base;
+            length -= half;
+        }
+        return values[base] == value ? base : -1;
+    }
+}
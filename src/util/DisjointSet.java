@@ -0,0 +1,215 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Union-find over {@code 0..n-1} with union by size and iterative path halving. Besides the size
+ * of every component it keeps how many components there are of each size, so the largest
+ * components can be listed without scanning every element.
+ */
+public class DisjointSet {
+    private final int[] parent;
+
+    private final int[] size;
+
+    // componentsBySize[s] is the number of components with s elements
+    private final int[] componentsBySize;
+
+    private int components;
+
+    private int largest;
+
+    public DisjointSet(int n) {
+        this.parent = new int[n];
+        this.size = new int[n];
+        this.componentsBySize = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        this.components = n;
+        this.largest = n > 0 ? 1 : 0;
+        if (n > 0) {
+            componentsBySize[1] = n;
+        }
+    }
+
+    public static Concurrent concurrent(int n) {
+        return new Concurrent(n);
+    }
+
+    public int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Joins the components of {@code a} and {@code b}; false if they were already joined.
+     */
+    public boolean union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) {
+            return false;
+        }
+        if (size[a] < size[b]) {
+            var tmp = a;
+            a = b;
+            b = tmp;
+        }
+        componentsBySize[size[a]]--;
+        componentsBySize[size[b]]--;
+        parent[b] = a;
+        size[a] += size[b];
+        componentsBySize[size[a]]++;
+        largest = Math.max(largest, size[a]);
+        components--;
+        return true;
+    }
+
+    public boolean connected(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    /**
+     * Size of the component holding {@code x}.
+     */
+    public int size(int x) {
+        return size[find(x)];
+    }
+
+    public int components() {
+        return components;
+    }
+
+    public int largest() {
+        return largest;
+    }
+
+    /**
+     * Sizes of the {@code k} largest components in descending order, fewer if there are not
+     * that many components.
+     */
+    public int[] largest(int k) {
+        var sizes = new int[Math.min(k, components)];
+        for (int s = largest, found = 0; found < sizes.length; s--) {
+            for (int c = componentsBySize[s]; c > 0 && found < sizes.length; c--) {
+                sizes[found++] = s;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Lock-free union-find for concurrent unions. Roots are linked with a compare-and-set on their
+     * parent, always under the root with the higher index, so concurrent links cannot form a
+     * cycle. Path halving also uses compare-and-set and is only an optimisation when it fails.
+     * <p>
+     * A linked root hands its size to the new root with {@code getAndSet(0)}; a size added to a
+     * root that was linked meanwhile is forwarded the same way. Sizes and the top-k query are
+     * therefore exact once no union is in flight.
+     */
+    public static class Concurrent {
+        private final AtomicIntegerArray parent;
+
+        private final AtomicIntegerArray size;
+
+        private final AtomicInteger components;
+
+        Concurrent(int n) {
+            this.parent = new AtomicIntegerArray(n);
+            this.size = new AtomicIntegerArray(n);
+            for (int i = 0; i < n; i++) {
+                parent.set(i, i);
+                size.set(i, 1);
+            }
+            this.components = new AtomicInteger(n);
+        }
+
+        public int find(int x) {
+            while (true) {
+                var p = parent.get(x);
+                if (p == x) {
+                    return x;
+                }
+                var grandparent = parent.get(p);
+                parent.compareAndSet(x, p, grandparent);
+                x = grandparent;
+            }
+        }
+
+        public boolean union(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return false;
+                }
+                var child = Math.min(a, b);
+                var root = Math.max(a, b);
+                if (parent.compareAndSet(child, child, root)) {
+                    components.decrementAndGet();
+                    forward(child);
+                    return true;
+                }
+            }
+        }
+
+        // Moves whatever size is left on a linked root up to the current root
+        private void forward(int x) {
+            var moved = size.getAndSet(x, 0);
+            while (moved != 0) {
+                x = find(x);
+                size.addAndGet(x, moved);
+                if (parent.get(x) == x) {
+                    return;
+                }
+                moved = size.getAndSet(x, 0);
+            }
+        }
+
+        public boolean connected(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return true;
+                }
+                // a was still a root after finding b, so they were disjoint at that point
+                if (parent.get(a) == a) {
+                    return false;
+                }
+            }
+        }
+
+        public int size(int x) {
+            return size.get(find(x));
+        }
+
+        public int components() {
+            return components.get();
+        }
+
+        public int[] largest(int k) {
+            var n = parent.length();
+            var sizes = new int[n];
+            var roots = 0;
+            for (int i = 0; i < n; i++) {
+                if (parent.get(i) == i) {
+                    sizes[roots++] = size.get(i);
+                }
+            }
+            Arrays.sort(sizes, 0, roots);
+            var largest = new int[Math.min(k, roots)];
+            for (int i = 0; i < largest.length; i++) {
+                largest[i] = sizes[roots - 1 - i];
+            }
+            return largest;
+        }
+    }
+}
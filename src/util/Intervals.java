@@ -0,0 +1,165 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Set of inclusive {@code long} intervals kept merged and sorted as parallel {@code starts/ends}
+ * arrays. Overlapping and adjacent intervals are coalesced, so lookups are plain searches.
+ */
+public class Intervals {
+    private long[] starts;
+
+    private long[] ends;
+
+    private int size;
+
+    private Intervals(long[] starts, long[] ends, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    public static Intervals empty() {
+        return new Intervals(new long[16], new long[16], 0);
+    }
+
+    /**
+     * Merges the intervals {@code [starts[i], ends[i]]}. Starts and ends are sorted independently
+     * (in parallel for large inputs) and swept as open/close events, which yields the same union
+     * as sorting the intervals themselves. The arrays are not modified.
+     */
+    public static Intervals of(long[] starts, long[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("Starts and ends differ in length");
+        }
+        var opens = starts.clone();
+        var closes = ends.clone();
+        Arrays.parallelSort(opens);
+        Arrays.parallelSort(closes);
+
+        int count = 0, depth = 0;
+        for (int i = 0, j = 0; i < opens.length; ) {
+            // Opening first on ties keeps touching intervals together
+            if (closes[j] < opens[i] - 1) {
+                if (--depth == 0) {
+                    closes[count - 1] = closes[j];
+                }
+                j++;
+            } else {
+                if (depth++ == 0) {
+                    opens[count++] = opens[i];
+                }
+                i++;
+            }
+        }
+        if (count > 0) {
+            closes[count - 1] = closes[closes.length - 1];
+        }
+        return new Intervals(opens, closes, count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long start(int i) {
+        return starts[i];
+    }
+
+    public long end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Number of values covered by all intervals.
+     */
+    public long length() {
+        long length = 0;
+        for (int i = 0; i < size; i++) {
+            length += ends[i] - starts[i] + 1L;
+        }
+        return length;
+    }
+
+    public boolean contains(long value) {
+        int i = floor(value);
+        return i >= 0 && value <= ends[i];
+    }
+
+    /**
+     * Counts the values contained in some interval. The values are sorted (in parallel for large
+     * inputs) and merge-joined against the intervals in a single sweep.
+     */
+    public long count(long[] values) {
+        var sorted = values.clone();
+        Arrays.parallelSort(sorted);
+        long count = 0;
+        for (int i = 0, j = 0; i < sorted.length && j < size; ) {
+            if (sorted[i] < starts[j]) {
+                i++;
+            } else if (sorted[i] > ends[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Inserts {@code [start, end]}, coalescing it with any overlapping or adjacent interval.
+     */
+    public void add(long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException("Empty interval: " + start + "-" + end);
+        }
+        // First interval that could merge: the one ending at or after start - 1
+        int from = floor(start);
+        if (from < 0 || ends[from] < start - 1) {
+            from++;
+        }
+        // Last interval that could merge: the one starting at or before end + 1
+        int to = end == Long.MAX_VALUE ? size - 1 : floor(end + 1);
+
+        if (from > to) {
+            ensureCapacity(size + 1);
+            System.arraycopy(starts, from, starts, from + 1, size - from);
+            System.arraycopy(ends, from, ends, from + 1, size - from);
+            starts[from] = start;
+            ends[from] = end;
+            size++;
+            return;
+        }
+        starts[from] = Math.min(start, starts[from]);
+        ends[from] = Math.max(end, ends[to]);
+        int removed = to - from;
+        if (removed > 0) {
+            System.arraycopy(starts, to + 1, starts, from + 1, size - to - 1);
+            System.arraycopy(ends, to + 1, ends, from + 1, size - to - 1);
+            size -= removed;
+        }
+    }
+
+    // Index of the last interval starting at or before value, or -1
+    private int floor(long value) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            var length = Math.max(capacity, starts.length << 1);
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package util;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Solver {
+    // Free variable subtrees with fewer leaves than this are searched by a single task
+    private static final long SEQUENTIAL_LEAVES = 1 << 12;
+
     public static int[] findMinSumIntegerSolution(int[][] matrix) {
+        return backtrackSearch(matrix, false);
+    }
+
+    private static int[] backtrackSearch(int[][] matrix, boolean parallel) {
         int rows = matrix.length;
         int cols = matrix[0].length;
         int nVars = cols - 1;
@@ -17,48 +29,21 @@ public class Solver {
         }
 
         // compute per-variable upper bounds from the original integer matrix (before elimination)
-        int[] perVarMax = new int[nVars];
-        Arrays.fill(perVarMax, implicitMax);
-        for (int var = 0; var < nVars; var++) {
-            // consider only free variables later; for now compute a safe bound for each var
-            int best = implicitMax;
-            boolean sawPositive = false;
-            for (int[] ints : matrix) {
-                int coeff = ints[var];
-                if (coeff > 0) {
-                    // only use this row to bound var if the row has no negative coefficients
-                    boolean rowHasNegative = false;
-                    for (int k = 0; k < nVars; k++) {
-                        if (ints[k] < 0) {
-                            rowHasNegative = true;
-                            break;
-                        }
-                    }
-                    if (rowHasNegative) {
-                        // skip this row; negative coefficients could let var be larger
-                        continue;
-                    }
-                    sawPositive = true;
-                    int rhs = ints[nVars];
-                    // if RHS negative while all coeffs non-negative, no non-negative solution exists
-                    if (rhs < 0) {
-                        return null;
-                    }
-                    int cand = rhs / coeff; // floor division (rhs and coeff are ints)
-                    if (cand < best) best = cand;
-                }
-            }
-            if (!sawPositive) {
-                // no direct positive-only constraint found — keep global cap
-                perVarMax[var] = implicitMax;
-            } else {
-                perVarMax[var] = Math.min(best, implicitMax);
-            }
+        int[] perVarMax = rowBounds(matrix, implicitMax);
+        if (perVarMax == null) {
+            return null;
         }
 
-        // Use BigInteger for exact arithmetic and perform Gaussian elimination
+        // Small coefficients stay within long; redo everything with BigInteger only if they do not
+        try {
+            return findMinSumLongSolution(matrix, perVarMax, implicitMax, parallel);
+        } catch (ArithmeticException overflow) {
+            // fall through to the BigInteger path
+        }
+
+        // Use BigInteger for exact arithmetic and perform Gaussian elimination modulo primes
         var A = convertMatrixToBigInteger(matrix);
-        gauss(A);
+        rowEchelon(A);
 
         // find pivot column for each row (first non-zero coefficient)
         int[] pivotCol = new int[rows];
@@ -176,6 +161,764 @@ public class Solver {
         return null;
     }
 
+    /**
+     * Upper bound on every variable proven by the rows whose coefficients are all non-negative,
+     * at most {@code cap}, and {@code cap} where no such row has the variable. Null if one of
+     * those rows has a negative right-hand side, which no non-negative solution satisfies.
+     */
+    private static int[] rowBounds(int[][] matrix, int cap) {
+        int nVars = matrix[0].length - 1;
+        int[] perVarMax = new int[nVars];
+        for (int var = 0; var < nVars; var++) {
+            int best = cap;
+            for (int[] ints : matrix) {
+                int coeff = ints[var];
+                if (coeff > 0) {
+                    // only use this row to bound var if the row has no negative coefficients
+                    boolean rowHasNegative = false;
+                    for (int k = 0; k < nVars; k++) {
+                        if (ints[k] < 0) {
+                            rowHasNegative = true;
+                            break;
+                        }
+                    }
+                    if (rowHasNegative) {
+                        // skip this row; negative coefficients could let var be larger
+                        continue;
+                    }
+                    int rhs = ints[nVars];
+                    // if RHS negative while all coeffs non-negative, no non-negative solution exists
+                    if (rhs < 0) {
+                        return null;
+                    }
+                    int cand = rhs / coeff; // floor division (rhs and coeff are ints)
+                    if (cand < best) best = cand;
+                }
+            }
+            perVarMax[var] = best;
+        }
+        return perVarMax;
+    }
+
+    /**
+     * How {@link #findMinSumIntegerSolution(int[][], Search)} looks for the optimum.
+     */
+    public enum Search {
+        /**
+         * Enumerates the free variables left by elimination up to per variable bounds.
+         */
+        BACKTRACK,
+        /**
+         * Same as {@link #BACKTRACK}, with the free variable tree split into fork join tasks that
+         * share the best sum found so far. Systems that overflow {@code long} run sequentially.
+         */
+        PARALLEL_BACKTRACK,
+        /**
+         * Branch and bound on exact rational LP relaxations.
+         */
+        BRANCH_AND_BOUND,
+        /**
+         * Enumerates the integer lattice of solutions from its Hermite normal form, falling back
+         * to {@link #BRANCH_AND_BOUND} if the lattice does not fit in {@code long} or the bounds
+         * proven by the rows leave it unbounded.
+         */
+        LATTICE,
+    }
+
+    /**
+     * Non-negative integer solution of {@code A x = b} with the smallest sum, or null if there is
+     * none; {@code matrix} holds {@code A} with {@code b} as its last column.
+     */
+    public static int[] findMinSumIntegerSolution(int[][] matrix, Search search) {
+        return switch (search) {
+            case BACKTRACK -> findMinSumIntegerSolution(matrix);
+            case PARALLEL_BACKTRACK -> backtrackSearch(matrix, true);
+            case BRANCH_AND_BOUND -> new BranchAndBound(matrix).solve();
+            case LATTICE -> {
+                try {
+                    yield Lattice.solve(matrix);
+                } catch (ArithmeticException overflow) {
+                    yield new BranchAndBound(matrix).solve();
+                }
+            }
+        };
+    }
+
+    /**
+     * Depth first branch and bound. Each node solves the LP relaxation of the system under its
+     * variable bounds exactly, over fractions, so the relaxed optimum rounded up is a valid lower
+     * bound: nodes that cannot beat the incumbent are dropped, and otherwise the node branches on
+     * the first fractional variable {@code v} into {@code x <= floor(v)} and {@code x >= ceil(v)}.
+     * A variable starts capped only where a row proves a bound, as in the backtracking search,
+     * and is unbounded otherwise. Systems with no integer solution at all are rejected up front
+     * by the Hermite form of the lattice, since their relaxation can stay feasible however far
+     * the bounds are pushed. Some optimum is a vertex of the relaxation plus less than one of
+     * each of at most {@code n} extreme rays, since subtracting a whole ray leaves a cheaper
+     * integer point, and Cramer's rule with Hadamard's inequality bounds the entries of both; a
+     * branch raising a variable past that limit is dropped. That ends every search, but the
+     * limit grows with the coefficients, so a system whose integer solutions all have a negative
+     * entry, or lie far apart compared to the relaxation, can still take very long.
+     */
+    private static class BranchAndBound {
+        private static final long UNBOUNDED = Long.MAX_VALUE;
+
+        private final int[][] matrix;
+
+        private final int rows;
+
+        private final int nVars;
+
+        private long limit;
+
+        private int[] best;
+
+        private long bestSum = Long.MAX_VALUE;
+
+        BranchAndBound(int[][] matrix) {
+            this.matrix = matrix;
+            this.rows = matrix.length;
+            this.nVars = matrix[0].length - 1;
+        }
+
+        int[] solve() {
+            var bounds = rowBounds(matrix, Integer.MAX_VALUE);
+            if (bounds == null || !Lattice.integral(matrix)) {
+                return null;
+            }
+            limit = limit();
+            var lower = new long[nVars];
+            var upper = new long[nVars];
+            for (int j = 0; j < nVars; j++) {
+                upper[j] = bounds[j] == Integer.MAX_VALUE ? UNBOUNDED : bounds[j];
+            }
+            branch(lower, upper);
+            return best;
+        }
+
+        /**
+         * Bound on every entry of some optimum: a vertex entry is a ratio of minors with the
+         * right-hand side swapped in for a column, an extreme ray's integer generator has minors
+         * as entries, and no minor exceeds the product of its column norms.
+         */
+        private long limit() {
+            var norms = new double[nVars];
+            double rhs = 0;
+            for (int[] row : matrix) {
+                for (int j = 0; j < nVars; j++) {
+                    norms[j] += (double) row[j] * row[j];
+                }
+                rhs += (double) row[nVars] * row[nVars];
+            }
+            for (int j = 0; j < nVars; j++) {
+                norms[j] = Math.max(1, Math.sqrt(norms[j]));
+            }
+            Arrays.sort(norms);
+            int size = Math.min(rows, nVars);
+            double minor = 1;
+            for (int j = nVars - size + 1; j < nVars; j++) {
+                minor *= norms[j];
+            }
+            double vertex = Math.sqrt(rhs) * minor;
+            double ray = minor * norms[nVars - size];
+            double limit = Math.ceil((vertex + nVars * ray) * (1 + 1e-9));
+            return limit < Long.MAX_VALUE ? (long) limit : Long.MAX_VALUE;
+        }
+
+        private void branch(long[] lower, long[] upper) {
+            // depth first with an explicit stack, since a chain of lower bounds can run to the limit
+            var pending = new ArrayDeque<long[][]>();
+            pending.push(new long[][] {lower, upper});
+            while (!pending.isEmpty()) {
+                var node = pending.pop();
+                lower = node[0];
+                upper = node[1];
+                var relaxed = relax(lower, upper);
+                if (relaxed == null) {
+                    continue;
+                }
+                var sum = Fraction.ZERO;
+                for (var value : relaxed) {
+                    sum = sum.add(value);
+                }
+                if (sum.ceil().compareTo(BigInteger.valueOf(bestSum)) >= 0) {
+                    continue;
+                }
+                int j = 0;
+                while (j < nVars && relaxed[j].isInteger()) {
+                    j++;
+                }
+                if (j < nVars) {
+                    var floor = relaxed[j].floor().longValueExact();
+                    if (floor < limit) {
+                        var raised = lower.clone();
+                        raised[j] = floor + 1;
+                        pending.push(new long[][] {raised, upper});
+                    }
+                    var lowered = upper.clone();
+                    lowered[j] = floor;
+                    pending.push(new long[][] {lower, lowered});
+                    continue;
+                }
+                var solution = new int[nVars];
+                for (j = 0; j < nVars; j++) {
+                    solution[j] = relaxed[j].floor().intValueExact();
+                }
+                best = solution;
+                bestSum = sum.floor().longValueExact();
+            }
+        }
+
+        /**
+         * Optimal point of the relaxation within {@code [lower, upper]}, or null if it is
+         * infeasible. Variables are shifted to {@code y = x - lower}, every finite upper bound
+         * becomes a row {@code y + s = upper - lower} whose slack starts basic, and every equation
+         * gets an artificial variable for the first phase of a two phase simplex.
+         */
+        private Fraction[] relax(long[] lower, long[] upper) {
+            int bounded = 0;
+            for (int j = 0; j < nVars; j++) {
+                if (lower[j] > upper[j]) {
+                    return null;
+                }
+                if (upper[j] != UNBOUNDED) {
+                    bounded++;
+                }
+            }
+            int height = rows + bounded;
+            int artificial = nVars + bounded;
+            int width = artificial + rows;
+            var tableau = new Tableau(height, width);
+            for (int i = 0; i < rows; i++) {
+                long rhs = matrix[i][nVars];
+                for (int j = 0; j < nVars; j++) {
+                    rhs = Math.subtractExact(rhs, Math.multiplyExact(matrix[i][j], lower[j]));
+                }
+                var sign = rhs < 0 ? -1 : 1;
+                for (int j = 0; j < nVars; j++) {
+                    tableau.cells[i][j] = Fraction.of(sign * matrix[i][j]);
+                }
+                tableau.cells[i][artificial + i] = Fraction.ONE;
+                tableau.cells[i][width] = Fraction.of(sign * rhs);
+                tableau.basis[i] = artificial + i;
+            }
+            for (int j = 0, i = rows; j < nVars; j++) {
+                if (upper[j] == UNBOUNDED) {
+                    continue;
+                }
+                var slack = nVars + i - rows;
+                tableau.cells[i][j] = Fraction.ONE;
+                tableau.cells[i][slack] = Fraction.ONE;
+                tableau.cells[i][width] = Fraction.of(upper[j] - lower[j]);
+                tableau.basis[i++] = slack;
+            }
+
+            // Phase one: drive the artificial variables to zero
+            var cost = new Fraction[width];
+            Arrays.fill(cost, Fraction.ZERO);
+            Arrays.fill(cost, artificial, width, Fraction.ONE);
+            if (tableau.minimize(cost, width).signum() != 0) {
+                return null;
+            }
+            tableau.evict(artificial);
+
+            // Phase two: minimize the sum of the shifted variables with artificials kept out
+            Arrays.fill(cost, Fraction.ZERO);
+            Arrays.fill(cost, 0, nVars, Fraction.ONE);
+            tableau.minimize(cost, artificial);
+            var point = new Fraction[nVars];
+            for (int j = 0; j < nVars; j++) {
+                point[j] = Fraction.of(lower[j]);
+            }
+            for (int i = 0; i < height; i++) {
+                if (tableau.basis[i] < nVars) {
+                    point[tableau.basis[i]] = point[tableau.basis[i]].add(tableau.cells[i][width]);
+                }
+            }
+            return point;
+        }
+    }
+
+    /**
+     * Integer solutions as a lattice. Unimodular column operations on {@code A} give its column
+     * Hermite form {@code A U = H}; forward substitution on {@code H y = b} fixes the leading
+     * part of {@code y} or shows there is no integer solution, and the rest is free. So every
+     * integer solution is {@code x0 + K z} for integer {@code z}, with {@code K} the last columns
+     * of {@code U}. {@code K} is brought to echelon form too, so once the earlier {@code z} are
+     * set, {@code z[k]} fixes at least its pivot coordinate, and {@code 0 <= x <= cap} on the
+     * coordinates it fixes bounds it. Only lattice points within those bounds are visited, and
+     * fixed coordinates add up to a lower bound on the sum. A coordinate is capped only where a
+     * row proves it, as in the backtracking search; if that leaves some {@code z[k]} unbounded,
+     * the search is left to branch and bound.
+     */
+    private static class Lattice {
+        private final long[] particular;
+
+        // kernel[j][k] is coordinate j of kernel direction k; the first non-zero of column k is
+        // at row pivotRows[k], is positive, and has only zeros to its right
+        private final long[][] kernel;
+
+        private final int[] pivotRows;
+
+        // Last kernel direction with a non-zero in each row, -1 if the coordinate is fixed
+        private final int[] lastDirection;
+
+        // Upper bound on each coordinate, UNBOUNDED where no row proves one
+        private final long[] caps;
+
+        // values[k] holds x0 + K z with z[0..k-1] set
+        private final long[][] values;
+
+        private int[] best;
+
+        private long bestSum = Long.MAX_VALUE;
+
+        private static final long UNBOUNDED = Long.MAX_VALUE;
+
+        private Lattice(long[] particular, long[][] kernel, int[] pivotRows, long[] caps) {
+            this.particular = particular;
+            this.kernel = kernel;
+            this.pivotRows = pivotRows;
+            this.caps = caps;
+            this.lastDirection = new int[particular.length];
+            for (int j = 0; j < particular.length; j++) {
+                lastDirection[j] = -1;
+                for (int k = 0; k < pivotRows.length; k++) {
+                    if (kernel[j][k] != 0) {
+                        lastDirection[j] = k;
+                    }
+                }
+            }
+            this.values = new long[pivotRows.length + 1][];
+        }
+
+        /**
+         * @throws ArithmeticException if the lattice or the search does not fit in a {@code long}
+         */
+        static int[] solve(int[][] matrix) {
+            int rows = matrix.length;
+            int nVars = matrix[0].length - 1;
+            var bounds = rowBounds(matrix, Integer.MAX_VALUE);
+            if (bounds == null) {
+                return null;
+            }
+            var caps = new long[nVars];
+            for (int j = 0; j < nVars; j++) {
+                caps[j] = bounds[j] == Integer.MAX_VALUE ? UNBOUNDED : bounds[j];
+            }
+
+            var columns = columns(matrix);
+            var pivotRows = echelon(columns, 0, 0, rows);
+            int rank = pivotRows.length;
+            var y = substitute(matrix, columns, pivotRows);
+            if (y == null) {
+                return null;
+            }
+
+            var particular = new long[nVars];
+            for (int j = 0; j < nVars; j++) {
+                var value = BigInteger.ZERO;
+                for (int k = 0; k < rank; k++) {
+                    value = value.add(columns[k][rows + j].multiply(y[k]));
+                }
+                particular[j] = value.longValueExact();
+            }
+            var kernelPivots = echelon(columns, rank, rows, rows + nVars);
+            var kernel = new long[nVars][nVars - rank];
+            for (int j = 0; j < nVars; j++) {
+                for (int k = rank; k < nVars; k++) {
+                    kernel[j][k - rank] = columns[k][rows + j].longValueExact();
+                }
+            }
+            for (int k = 0; k < kernelPivots.length; k++) {
+                kernelPivots[k] -= rows;
+            }
+            var lattice = new Lattice(particular, kernel, kernelPivots, caps);
+            if (!lattice.bounded()) {
+                return new BranchAndBound(matrix).solve();
+            }
+            lattice.search();
+            return lattice.best;
+        }
+
+        /**
+         * Whether {@code A x = b} has an integer solution at all, signs aside.
+         */
+        static boolean integral(int[][] matrix) {
+            var columns = columns(matrix);
+            return substitute(matrix, columns, echelon(columns, 0, 0, matrix.length)) != null;
+        }
+
+        // Column j of A stacked over column j of the identity, so U is tracked along with H
+        private static BigInteger[][] columns(int[][] matrix) {
+            int rows = matrix.length;
+            int nVars = matrix[0].length - 1;
+            var columns = new BigInteger[nVars][rows + nVars];
+            for (int j = 0; j < nVars; j++) {
+                for (int i = 0; i < rows; i++) {
+                    columns[j][i] = BigInteger.valueOf(matrix[i][j]);
+                }
+                for (int i = 0; i < nVars; i++) {
+                    columns[j][rows + i] = i == j ? BigInteger.ONE : BigInteger.ZERO;
+                }
+            }
+            return columns;
+        }
+
+        // Forward substitution of H y = b over the pivot columns, null if y is not integral
+        private static BigInteger[] substitute(int[][] matrix, BigInteger[][] columns, int[] pivotRows) {
+            int nVars = matrix[0].length - 1;
+            int rank = pivotRows.length;
+            var y = new BigInteger[rank];
+            for (int i = 0, k = 0; i < matrix.length; i++) {
+                var rhs = BigInteger.valueOf(matrix[i][nVars]);
+                for (int l = 0; l < k; l++) {
+                    rhs = rhs.subtract(columns[l][i].multiply(y[l]));
+                }
+                if (k < rank && pivotRows[k] == i) {
+                    var qr = rhs.divideAndRemainder(columns[k][i]);
+                    if (qr[1].signum() != 0) {
+                        return null;
+                    }
+                    y[k++] = qr[0];
+                } else if (rhs.signum() != 0) {
+                    return null;
+                }
+            }
+            return y;
+        }
+
+        /**
+         * Column echelon form of columns {@code [first, n)} over rows {@code [from, to)} by
+         * unimodular column operations: the pivot of each column is positive, is the only
+         * non-zero of its row among later columns, and earlier columns are reduced modulo it.
+         * Returns the pivot row of each column from {@code first} on that got one.
+         */
+        private static int[] echelon(BigInteger[][] columns, int first, int from, int to) {
+            var pivots = new int[columns.length - first];
+            int c = first;
+            for (int i = from; i < to && c < columns.length; i++) {
+                for (int j = c + 1; j < columns.length; j++) {
+                    if (columns[j][i].signum() != 0) {
+                        combine(columns, c, j, i);
+                    }
+                }
+                var pivot = columns[c][i];
+                if (pivot.signum() == 0) {
+                    continue;
+                }
+                if (pivot.signum() < 0) {
+                    negate(columns[c]);
+                    pivot = pivot.negate();
+                }
+                for (int l = first; l < c; l++) {
+                    var quotient = floorDiv(columns[l][i], pivot);
+                    if (quotient.signum() != 0) {
+                        for (int r = 0; r < columns[l].length; r++) {
+                            columns[l][r] = columns[l][r].subtract(quotient.multiply(columns[c][r]));
+                        }
+                    }
+                }
+                pivots[c - first] = i;
+                c++;
+            }
+            return Arrays.copyOf(pivots, c - first);
+        }
+
+        // Replaces columns a and b by unimodular combinations leaving gcd(a[i], b[i]) in a and 0 in b
+        private static void combine(BigInteger[][] columns, int a, int b, int i) {
+            var alpha = columns[a][i];
+            var beta = columns[b][i];
+            // p * alpha + q * beta = g, by the extended Euclidean algorithm
+            BigInteger oldR = alpha, r = beta, oldP = BigInteger.ONE, p = BigInteger.ZERO, oldQ = BigInteger.ZERO, q = BigInteger.ONE;
+            while (r.signum() != 0) {
+                var quotient = oldR.divide(r);
+                var t = oldR.subtract(quotient.multiply(r));
+                oldR = r;
+                r = t;
+                t = oldP.subtract(quotient.multiply(p));
+                oldP = p;
+                p = t;
+                t = oldQ.subtract(quotient.multiply(q));
+                oldQ = q;
+                q = t;
+            }
+            var g = oldR;
+            var alphaG = alpha.divide(g);
+            var betaG = beta.divide(g);
+            for (int row = 0; row < columns[a].length; row++) {
+                var x = columns[a][row];
+                var z = columns[b][row];
+                columns[a][row] = oldP.multiply(x).add(oldQ.multiply(z));
+                columns[b][row] = alphaG.multiply(z).subtract(betaG.multiply(x));
+            }
+        }
+
+        private static void negate(BigInteger[] column) {
+            for (int r = 0; r < column.length; r++) {
+                column[r] = column[r].negate();
+            }
+        }
+
+        private static BigInteger floorDiv(BigInteger a, BigInteger b) {
+            var qr = a.divideAndRemainder(b);
+            return qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0];
+        }
+
+        // Whether every z[k] has both ends bounded by a coordinate it fixes
+        private boolean bounded() {
+            for (int k = 0; k < pivotRows.length; k++) {
+                boolean below = false, above = false;
+                for (int j = 0; j < particular.length; j++) {
+                    if (lastDirection[j] == k) {
+                        below |= kernel[j][k] > 0 || caps[j] != UNBOUNDED;
+                        above |= kernel[j][k] < 0 || caps[j] != UNBOUNDED;
+                    }
+                }
+                if (!below || !above) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void search() {
+            var fixedSum = 0L;
+            for (int j = 0; j < particular.length; j++) {
+                if (lastDirection[j] < 0) {
+                    if (particular[j] < 0 || particular[j] > caps[j]) {
+                        return;
+                    }
+                    fixedSum += particular[j];
+                }
+            }
+            for (int k = 0; k < values.length; k++) {
+                values[k] = new long[particular.length];
+            }
+            System.arraycopy(particular, 0, values[0], 0, particular.length);
+            search(0, fixedSum);
+        }
+
+        private void search(int k, long fixedSum) {
+            if (fixedSum >= bestSum) {
+                return;
+            }
+            if (k == pivotRows.length) {
+                best = new int[particular.length];
+                for (int j = 0; j < best.length; j++) {
+                    best[j] = Math.toIntExact(values[k][j]);
+                }
+                bestSum = fixedSum;
+                return;
+            }
+            var current = values[k];
+            var next = values[k + 1];
+            // Every coordinate fixed by z[k] bounds it, the pivot coordinate included
+            long low = Long.MIN_VALUE, high = Long.MAX_VALUE;
+            for (int j = 0; j < current.length; j++) {
+                var step = kernel[j][k];
+                if (lastDirection[j] != k || step == 0) {
+                    continue;
+                }
+                if (step > 0) {
+                    low = Math.max(low, Math.ceilDiv(-current[j], step));
+                } else {
+                    high = Math.min(high, Math.floorDiv(-current[j], step));
+                }
+                if (caps[j] != UNBOUNDED) {
+                    var room = Math.subtractExact(caps[j], current[j]);
+                    if (step > 0) {
+                        high = Math.min(high, Math.floorDiv(room, step));
+                    } else {
+                        low = Math.max(low, Math.ceilDiv(room, step));
+                    }
+                }
+            }
+            for (long z = low; z <= high; z++) {
+                var sum = fixedSum;
+                for (int j = 0; j < current.length; j++) {
+                    next[j] = Math.addExact(current[j], Math.multiplyExact(kernel[j][k], z));
+                    if (lastDirection[j] == k) {
+                        sum += next[j];
+                    }
+                }
+                search(k + 1, sum);
+            }
+        }
+    }
+
+    /**
+     * Simplex tableau with the right-hand side in the last column, pivoting by Bland's rule so it
+     * cannot cycle on degenerate vertices.
+     */
+    private static class Tableau {
+        private final Fraction[][] cells;
+
+        private final int[] basis;
+
+        private final int width;
+
+        Tableau(int height, int width) {
+            this.cells = new Fraction[height][width + 1];
+            for (var row : cells) {
+                Arrays.fill(row, Fraction.ZERO);
+            }
+            this.basis = new int[height];
+            this.width = width;
+        }
+
+        /**
+         * Minimizes {@code cost} letting only columns below {@code entering} into the basis.
+         * The problems solved here are bounded below, so the minimum always exists.
+         */
+        Fraction minimize(Fraction[] cost, int entering) {
+            while (true) {
+                int column = -1;
+                for (int j = 0; j < entering && column < 0; j++) {
+                    if (reducedCost(cost, j).signum() < 0) {
+                        column = j;
+                    }
+                }
+                if (column < 0) {
+                    var objective = Fraction.ZERO;
+                    for (int i = 0; i < cells.length; i++) {
+                        objective = objective.add(cost[basis[i]].multiply(cells[i][width]));
+                    }
+                    return objective;
+                }
+                int row = -1;
+                Fraction ratio = null;
+                for (int i = 0; i < cells.length; i++) {
+                    if (cells[i][column].signum() > 0) {
+                        var candidate = cells[i][width].divide(cells[i][column]);
+                        var order = ratio == null ? -1 : candidate.compareTo(ratio);
+                        if (order < 0 || (order == 0 && basis[i] < basis[row])) {
+                            row = i;
+                            ratio = candidate;
+                        }
+                    }
+                }
+                if (row < 0) {
+                    throw new IllegalStateException("Unbounded relaxation");
+                }
+                pivot(row, column);
+            }
+        }
+
+        /**
+         * Pivots basic columns from {@code from} on out of the basis where some other column can
+         * take their row; rows where none can are redundant and stay as they are.
+         */
+        void evict(int from) {
+            for (int i = 0; i < cells.length; i++) {
+                if (basis[i] >= from) {
+                    for (int j = 0; j < from; j++) {
+                        if (cells[i][j].signum() != 0) {
+                            pivot(i, j);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private Fraction reducedCost(Fraction[] cost, int column) {
+            var reduced = cost[column];
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i][column].signum() != 0) {
+                    reduced = reduced.subtract(cost[basis[i]].multiply(cells[i][column]));
+                }
+            }
+            return reduced;
+        }
+
+        private void pivot(int row, int column) {
+            var pivot = cells[row][column];
+            for (int j = 0; j <= width; j++) {
+                cells[row][j] = cells[row][j].divide(pivot);
+            }
+            for (int i = 0; i < cells.length; i++) {
+                var factor = cells[i][column];
+                if (i != row && factor.signum() != 0) {
+                    for (int j = 0; j <= width; j++) {
+                        if (cells[row][j].signum() != 0) {
+                            cells[i][j] = cells[i][j].subtract(factor.multiply(cells[row][j]));
+                        }
+                    }
+                }
+            }
+            basis[row] = column;
+        }
+    }
+
+    /**
+     * Exact rational in lowest terms with a positive denominator.
+     */
+    private record Fraction(BigInteger numerator, BigInteger denominator) implements Comparable<Fraction> {
+        static final Fraction ZERO = of(0);
+
+        static final Fraction ONE = of(1);
+
+        static Fraction of(long value) {
+            return new Fraction(BigInteger.valueOf(value), BigInteger.ONE);
+        }
+
+        static Fraction of(BigInteger numerator, BigInteger denominator) {
+            if (denominator.signum() < 0) {
+                numerator = numerator.negate();
+                denominator = denominator.negate();
+            }
+            var gcd = numerator.gcd(denominator);
+            if (!gcd.equals(BigInteger.ONE) && gcd.signum() != 0) {
+                numerator = numerator.divide(gcd);
+                denominator = denominator.divide(gcd);
+            }
+            return new Fraction(numerator, denominator);
+        }
+
+        Fraction add(Fraction other) {
+            if (denominator.equals(other.denominator)) {
+                return of(numerator.add(other.numerator), denominator);
+            }
+            return of(numerator.multiply(other.denominator).add(other.numerator.multiply(denominator)),
+                    denominator.multiply(other.denominator));
+        }
+
+        Fraction subtract(Fraction other) {
+            return add(new Fraction(other.numerator.negate(), other.denominator));
+        }
+
+        Fraction multiply(Fraction other) {
+            return of(numerator.multiply(other.numerator), denominator.multiply(other.denominator));
+        }
+
+        Fraction divide(Fraction other) {
+            return of(numerator.multiply(other.denominator), denominator.multiply(other.numerator));
+        }
+
+        int signum() {
+            return numerator.signum();
+        }
+
+        boolean isInteger() {
+            return denominator.equals(BigInteger.ONE);
+        }
+
+        BigInteger floor() {
+            var qr = numerator.divideAndRemainder(denominator);
+            return qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0];
+        }
+
+        BigInteger ceil() {
+            var qr = numerator.divideAndRemainder(denominator);
+            return qr[1].signum() > 0 ? qr[0].add(BigInteger.ONE) : qr[0];
+        }
+
+        @Override
+        public int compareTo(Fraction other) {
+            return numerator.multiply(other.denominator).compareTo(other.numerator.multiply(denominator));
+        }
+    }
+
     // recursive backtracking helper extracted from findMinSumIntegerSolution for clarity
     private static void backtrack(BigInteger[][] A,
                                   int nVars,
@@ -269,6 +1012,279 @@ public class Solver {
         }
     }
 
+    /**
+     * Same search as the BigInteger path of {@link #findMinSumIntegerSolution(int[][])} on
+     * {@code long} coefficients, without allocating per candidate. Every product and sum is
+     * checked, so an {@link ArithmeticException} means the system needs BigInteger arithmetic.
+     */
+    private static int[] findMinSumLongSolution(int[][] matrix, int[] perVarMax, int implicitMax, boolean parallel) {
+        int rows = matrix.length;
+        int nVars = matrix[0].length - 1;
+        var A = new long[rows][];
+        for (int i = 0; i < rows; i++) {
+            A[i] = Arrays.stream(matrix[i]).asLongStream().toArray();
+        }
+        gauss(A);
+
+        // find pivot column for each row (first non-zero coefficient)
+        int[] pivotRowForCol = new int[nVars];
+        Arrays.fill(pivotRowForCol, -1);
+        boolean[] isPivot = new boolean[nVars];
+        for (int i = 0; i < rows; i++) {
+            int pivotCol = -1;
+            for (int j = 0; j < nVars; j++) {
+                if (A[i][j] != 0) {
+                    pivotCol = j;
+                    isPivot[j] = true;
+                    pivotRowForCol[j] = i;
+                    break;
+                }
+            }
+            // inconsistent row check: 0 ... 0 | rhs != 0
+            if (pivotCol == -1 && A[i][nVars] != 0) {
+                return null;
+            }
+        }
+
+        int freeCount = 0;
+        for (int j = 0; j < nVars; j++) {
+            if (!isPivot[j]) freeCount++;
+        }
+        int[] freeVars = new int[freeCount];
+        for (int j = 0, idx = 0; j < nVars; j++) {
+            if (!isPivot[j]) freeVars[idx++] = j;
+        }
+        int pivotCount = nVars - freeCount;
+        int[] pivotCols = new int[pivotCount];
+        for (int j = nVars - 1, idx = 0; j >= 0; j--) {
+            if (pivotRowForCol[j] != -1) pivotCols[idx++] = j;
+        }
+
+        int[] solution = new int[nVars];
+        boolean[] assigned = new boolean[nVars];
+
+        // Quick attempt: all free variables at 0
+        if (substitute(A, nVars, pivotRowForCol, pivotCols, pivotCount, solution, assigned)
+                && validateSolution(A, solution, nVars)) {
+            return Arrays.copyOf(solution, nVars);
+        }
+        for (int col : pivotCols) {
+            assigned[col] = false;
+            solution[col] = 0;
+        }
+
+        var incumbent = new Incumbent();
+        var search = new FreeVariables(A, nVars, pivotRowForCol, freeVars, pivotCols, perVarMax, incumbent);
+        search.run(solution, assigned, parallel);
+        if (incumbent.solution == null) {
+            int[] relaxed = new int[nVars];
+            Arrays.fill(relaxed, implicitMax);
+            search = new FreeVariables(A, nVars, pivotRowForCol, freeVars, pivotCols, relaxed, incumbent);
+            search.run(solution, assigned, parallel);
+        }
+        return incumbent.solution;
+    }
+
+    /**
+     * Best solution found so far. The sum is read without locking to prune, and only lowered
+     * together with the solution under the lock, so the two always match.
+     */
+    private static class Incumbent {
+        private final AtomicLong sum = new AtomicLong(Long.MAX_VALUE);
+
+        private int[] solution;
+
+        synchronized void offer(int[] candidate, long total) {
+            if (total < sum.get()) {
+                solution = candidate.clone();
+                sum.set(total);
+            }
+        }
+    }
+
+    /**
+     * Enumeration of the free variables of an eliminated {@code long} system. In parallel, every
+     * value of a free variable becomes a subtask until a subtree has fewer than
+     * {@link #SEQUENTIAL_LEAVES} leaves, which one task then walks with the sequential backtrack.
+     * All tasks prune against the shared {@link Incumbent}, so a better sum found by one worker
+     * immediately cuts the others.
+     */
+    private record FreeVariables(long[][] A,
+                                 int nVars,
+                                 int[] pivotRowForCol,
+                                 int[] freeVars,
+                                 int[] pivotCols,
+                                 int[] perVarMax,
+                                 Incumbent incumbent) {
+        void run(int[] solution, boolean[] assigned, boolean parallel) {
+            if (parallel && freeVars.length > 0) {
+                ForkJoinPool.commonPool().invoke(new Subtree(solution.clone(), assigned.clone(), 0, 0L, 0, perVarMax[freeVars[0]]));
+            } else {
+                walk(solution, assigned, 0, 0L);
+            }
+        }
+
+        private void walk(int[] solution, boolean[] assigned, int idx, long sumFree) {
+            backtrack(A, nVars, pivotRowForCol, freeVars, freeVars.length, pivotCols, pivotCols.length, perVarMax, solution, assigned, idx, sumFree, incumbent);
+        }
+
+        private long leaves(int idx) {
+            long leaves = 1;
+            for (int k = idx; k < freeVars.length && leaves < SEQUENTIAL_LEAVES; k++) {
+                leaves *= perVarMax[freeVars[k]] + 1L;
+            }
+            return leaves;
+        }
+
+        /**
+         * Values {@code from..to} of the free variable at {@code idx} and everything below them.
+         * Large ranges split in halves and a single value descends to the next free variable, so
+         * the queued tasks stay proportional to the depth rather than to the value range.
+         */
+        private class Subtree extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int[] solution;
+
+            private final boolean[] assigned;
+
+            private final int idx;
+
+            private final long sumFree;
+
+            private final int from;
+
+            private final int to;
+
+            Subtree(int[] solution, boolean[] assigned, int idx, long sumFree, int from, int to) {
+                this.solution = solution;
+                this.assigned = assigned;
+                this.idx = idx;
+                this.sumFree = sumFree;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (sumFree + from >= incumbent.sum.get()) {
+                    return;
+                }
+                int var = freeVars[idx];
+                if ((to - from + 1L) * leaves(idx + 1) < SEQUENTIAL_LEAVES) {
+                    assigned[var] = true;
+                    for (int v = from; v <= to && sumFree + v < incumbent.sum.get(); v++) {
+                        solution[var] = v;
+                        walk(solution, assigned, idx + 1, sumFree + v);
+                    }
+                    return;
+                }
+                if (from < to) {
+                    int mid = from + (to - from) / 2;
+                    invokeAll(new Subtree(solution.clone(), assigned.clone(), idx, sumFree, from, mid),
+                            new Subtree(solution, assigned, idx, sumFree, mid + 1, to));
+                    return;
+                }
+                solution[var] = from;
+                assigned[var] = true;
+                new Subtree(solution, assigned, idx + 1, sumFree + from, 0, perVarMax[freeVars[idx + 1]]).compute();
+            }
+        }
+    }
+
+    private static void backtrack(long[][] A,
+                                  int nVars,
+                                  int[] pivotRowForCol,
+                                  int[] freeVars,
+                                  int freeLen,
+                                  int[] pivotCols,
+                                  int pivotLen,
+                                  int[] perVarMax,
+                                  int[] solution,
+                                  boolean[] assigned,
+                                  int idx,
+                                  long sumFree,
+                                  Incumbent incumbent) {
+        if (sumFree >= incumbent.sum.get()) return;
+        if (idx == freeLen) {
+            if (substitute(A, nVars, pivotRowForCol, pivotCols, pivotLen, solution, assigned)
+                    && validateSolution(A, solution, nVars)) {
+                long total = 0L;
+                for (int k = 0; k < nVars; k++) total += solution[k];
+                incumbent.offer(solution, total);
+            }
+            for (int p = 0; p < pivotLen; p++) {
+                assigned[pivotCols[p]] = false;
+                solution[pivotCols[p]] = 0;
+            }
+            return;
+        }
+
+        int var = freeVars[idx];
+        int maxV = perVarMax[var];
+        for (int v = 0; v <= maxV; v++) {
+            if (sumFree + v >= incumbent.sum.get()) {
+                break;
+            }
+            solution[var] = v;
+            assigned[var] = true;
+            backtrack(A, nVars, pivotRowForCol, freeVars, freeLen, pivotCols, pivotLen, perVarMax, solution, assigned, idx + 1, sumFree + v, incumbent);
+            assigned[var] = false;
+            solution[var] = 0;
+        }
+    }
+
+    // back-substitution of the pivot variables (descending columns); false if one is not a non-negative int
+    private static boolean substitute(long[][] A,
+                                      int nVars,
+                                      int[] pivotRowForCol,
+                                      int[] pivotCols,
+                                      int pivotLen,
+                                      int[] solution,
+                                      boolean[] assigned) {
+        for (int p = 0; p < pivotLen; p++) {
+            int col = pivotCols[p];
+            int row = pivotRowForCol[col];
+            long sum = 0;
+            for (int j = col + 1; j < nVars; j++) {
+                if (A[row][j] != 0) {
+                    if (!assigned[j]) {
+                        return false;
+                    }
+                    sum = Math.addExact(sum, Math.multiplyExact(A[row][j], solution[j]));
+                }
+            }
+            long lhs = Math.subtractExact(A[row][nVars], sum);
+            long pivotCoeff = A[row][col];
+            if (lhs % pivotCoeff != 0) {
+                return false; // non-integer
+            }
+            long val = Math.divideExact(lhs, pivotCoeff);
+            if (val < 0 || val > Integer.MAX_VALUE) {
+                return false;
+            }
+            solution[col] = (int) val;
+            assigned[col] = true;
+        }
+        return true;
+    }
+
+    private static boolean validateSolution(long[][] A, int[] sol, int nVars) {
+        for (int k : sol) {
+            if (k < 0) return false;
+        }
+        for (long[] row : A) {
+            long sum = 0;
+            for (int j = 0; j < nVars; j++) {
+                if (row[j] != 0) {
+                    sum = Math.addExact(sum, Math.multiplyExact(row[j], sol[j]));
+                }
+            }
+            if (sum != row[nVars]) return false;
+        }
+        return true;
+    }
+
     // helper: verify solution satisfies A * sol == rhs for every row and non-negativity
     private static boolean validateSolution(java.math.BigInteger[][] A, int[] sol, int nVars) {
         for (int k : sol) {
@@ -342,6 +1358,230 @@ public class Solver {
         return rank;
     }
 
+    /**
+     * Bareiss elimination in place on {@code long} coefficients, step for step the same as
+     * {@link #gauss(BigInteger[][])}.
+     *
+     * @throws ArithmeticException if an intermediate value does not fit in a {@code long}
+     */
+    public static int gauss(long[][] A) {
+        int rows = A.length;
+        int cols = A[0].length;
+        int limit = Math.min(rows, cols);
+        long prevPivot = 1;
+        int rank = 0;
+        for (int k = 0; k < limit; k++) {
+            int pivotRow = k;
+            while (pivotRow < rows && A[pivotRow][k] == 0) {
+                pivotRow++;
+            }
+            if (pivotRow == rows) {
+                continue;
+            }
+            if (pivotRow != k) {
+                var tmp = A[k];
+                A[k] = A[pivotRow];
+                A[pivotRow] = tmp;
+            }
+            rank++;
+            var pivot = A[k][k];
+            for (int i = k + 1; i < rows; i++) {
+                for (int j = k + 1; j < cols; j++) {
+                    var num = Math.subtractExact(Math.multiplyExact(A[i][j], pivot), Math.multiplyExact(A[i][k], A[k][j]));
+                    if (prevPivot != 1) {
+                        num = Math.divideExact(num, prevPivot);
+                    }
+                    A[i][j] = num;
+                }
+                A[i][k] = 0;
+            }
+            prevPivot = pivot;
+        }
+        return rank;
+    }
+
+    /**
+     * Reduced row echelon form of {@code A} in place, each row scaled to coprime integers with a
+     * positive pivot and zero rows moved last; returns the rank. Unlike {@link #gauss(BigInteger[][])}
+     * the elimination runs modulo 31-bit primes on {@code long} arithmetic, several primes in
+     * parallel, and the exact rationals are rebuilt from the residues by the Chinese remainder
+     * theorem and rational reconstruction. Primes are added until the rebuilt form reproduces
+     * every row of {@code A}; as the reduced form is unique, that proves it exact. Primes whose
+     * pivots differ from the earliest ones seen divide some minor and are dropped.
+     */
+    public static int rowEchelon(BigInteger[][] A) {
+        int rows = A.length;
+        int cols = A[0].length;
+        var primes = new ArrayList<Long>();
+        var profile = (int[]) null;
+        var modulus = BigInteger.ONE;
+        var residues = (BigInteger[][]) null;
+        for (long candidate = 1L << 31, batch = 1; ; batch = Math.max(batch, primes.size())) {
+            var next = new long[(int) batch];
+            for (int b = 0; b < next.length; b++) {
+                do {
+                    candidate--;
+                } while (!BigInteger.valueOf(candidate).isProbablePrime(30));
+                next[b] = candidate;
+            }
+            var reductions = Arrays.stream(next).parallel().mapToObj(p -> ModularEchelon.of(A, p)).toList();
+            for (var reduction : reductions) {
+                var order = profile == null ? -1 : ModularEchelon.compare(reduction.pivots, profile);
+                if (order > 0) {
+                    continue; // unlucky prime
+                }
+                if (order < 0) {
+                    profile = reduction.pivots;
+                    primes.clear();
+                    modulus = BigInteger.ONE;
+                    residues = new BigInteger[profile.length][cols];
+                    for (var row : residues) {
+                        Arrays.fill(row, BigInteger.ZERO);
+                    }
+                }
+                primes.add(reduction.prime);
+                var p = BigInteger.valueOf(reduction.prime);
+                var inverse = modulus.mod(p).modInverse(p);
+                for (int i = 0; i < profile.length; i++) {
+                    for (int j = 0; j < cols; j++) {
+                        // x = r + N * ((v - r) / N mod p)
+                        var r = residues[i][j];
+                        var t = BigInteger.valueOf(reduction.cells[i][j]).subtract(r).multiply(inverse).mod(p);
+                        residues[i][j] = r.add(modulus.multiply(t));
+                    }
+                }
+                modulus = modulus.multiply(p);
+            }
+            var reduced = reconstruct(residues, modulus, profile);
+            if (reduced != null && spans(reduced, profile, A)) {
+                for (int i = 0; i < rows; i++) {
+                    if (i < reduced.length) {
+                        A[i] = reduced[i];
+                    } else {
+                        Arrays.fill(A[i] = new BigInteger[cols], BigInteger.ZERO);
+                    }
+                }
+                return profile.length;
+            }
+        }
+    }
+
+    // Rational reconstruction of every residue, each row scaled by the lcm of its denominators
+    private static BigInteger[][] reconstruct(BigInteger[][] residues, BigInteger modulus, int[] pivots) {
+        var bound = modulus.shiftRight(1).sqrt();
+        var rows = new BigInteger[pivots.length][];
+        for (int i = 0; i < pivots.length; i++) {
+            var numerators = new BigInteger[residues[i].length];
+            var denominators = new BigInteger[residues[i].length];
+            var lcm = BigInteger.ONE;
+            for (int j = 0; j < numerators.length; j++) {
+                // Extended Euclid on (N, x) until the remainder drops below the bound
+                BigInteger r0 = modulus, r1 = residues[i][j], t0 = BigInteger.ZERO, t1 = BigInteger.ONE;
+                while (r1.compareTo(bound) > 0) {
+                    var q = r0.divide(r1);
+                    var r = r0.subtract(q.multiply(r1));
+                    r0 = r1;
+                    r1 = r;
+                    var t = t0.subtract(q.multiply(t1));
+                    t0 = t1;
+                    t1 = t;
+                }
+                if (t1.abs().compareTo(bound) > 0 || !r1.gcd(t1).equals(BigInteger.ONE) && r1.signum() != 0) {
+                    return null;
+                }
+                numerators[j] = t1.signum() < 0 ? r1.negate() : r1;
+                denominators[j] = t1.abs();
+                lcm = lcm.divide(lcm.gcd(denominators[j])).multiply(denominators[j]);
+            }
+            rows[i] = new BigInteger[numerators.length];
+            for (int j = 0; j < numerators.length; j++) {
+                rows[i][j] = numerators[j].multiply(lcm.divide(denominators[j]));
+            }
+        }
+        return rows;
+    }
+
+    // Whether every row of A is the combination of the reduced rows given by its pivot entries
+    private static boolean spans(BigInteger[][] reduced, int[] pivots, BigInteger[][] A) {
+        var scale = BigInteger.ONE;
+        for (int k = 0; k < pivots.length; k++) {
+            var pivot = reduced[k][pivots[k]];
+            scale = scale.divide(scale.gcd(pivot)).multiply(pivot);
+        }
+        for (var row : A) {
+            for (int j = 0; j < row.length; j++) {
+                var sum = BigInteger.ZERO;
+                for (int k = 0; k < pivots.length; k++) {
+                    if (row[pivots[k]].signum() != 0) {
+                        var factor = scale.divide(reduced[k][pivots[k]]);
+                        sum = sum.add(row[pivots[k]].multiply(factor).multiply(reduced[k][j]));
+                    }
+                }
+                if (!sum.equals(row[j].multiply(scale))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reduced row echelon form of an integer matrix modulo a prime below 2^31, where products of
+     * two residues fit in a {@code long}. Rows hold residues in {@code [0, prime)}.
+     */
+    private record ModularEchelon(long prime, int[] pivots, long[][] cells) {
+        static ModularEchelon of(BigInteger[][] A, long prime) {
+            int rows = A.length;
+            int cols = A[0].length;
+            var p = BigInteger.valueOf(prime);
+            var cells = new long[rows][cols];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    cells[i][j] = A[i][j].mod(p).longValue();
+                }
+            }
+            var pivots = new int[Math.min(rows, cols)];
+            int rank = 0;
+            for (int j = 0; j < cols && rank < rows; j++) {
+                int pivotRow = rank;
+                while (pivotRow < rows && cells[pivotRow][j] == 0) {
+                    pivotRow++;
+                }
+                if (pivotRow == rows) {
+                    continue;
+                }
+                var tmp = cells[rank];
+                cells[rank] = cells[pivotRow];
+                cells[pivotRow] = tmp;
+                var inverse = BigInteger.valueOf(cells[rank][j]).modInverse(p).longValue();
+                for (int c = j; c < cols; c++) {
+                    cells[rank][c] = cells[rank][c] * inverse % prime;
+                }
+                for (int i = 0; i < rows; i++) {
+                    var factor = cells[i][j];
+                    if (i != rank && factor != 0) {
+                        for (int c = j; c < cols; c++) {
+                            cells[i][c] = Math.floorMod(cells[i][c] - factor * cells[rank][c] % prime, prime);
+                        }
+                    }
+                }
+                pivots[rank++] = j;
+            }
+            return new ModularEchelon(prime, Arrays.copyOf(pivots, rank), Arrays.copyOf(cells, rank));
+        }
+
+        /**
+         * Orders pivot profiles so that the true one, with the largest rank and the earliest
+         * columns, comes first.
+         */
+        static int compare(int[] a, int[] b) {
+            if (a.length != b.length) {
+                return Integer.compare(b.length, a.length);
+            }
+            return Arrays.compare(a, b);
+        }
+    }
+
     private static BigInteger[][] convertMatrixToBigInteger(int[][] matrix) {
         int rows = matrix.length;
         int cols = matrix[0].length;
@@ -0,0 +1,191 @@
+package util;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+/**
+ * Linear system over GF(2) whose columns are bitmasks: choosing a set of columns xors their masks
+ * together. Gaussian elimination runs once on {@code long} words, recording which columns make up
+ * every pivot, and the columns that reduce to zero span the null space. Solutions for any target
+ * are then a particular solution xored with a null space combination.
+ */
+public class XorSystem {
+    private static final int MAX_COLUMNS = 63;
+
+    // Largest half enumerated by the meet in the middle, which keeps two table entries per subset
+    private static final int MAX_HALF = 20;
+
+    // Largest null space walked in Gray code order
+    private static final int MAX_NULLITY = 30;
+
+    private final long[] columns;
+
+    // pivots[b] is a reduced vector whose highest bit is b, 0 if there is none
+    private final long[] pivots = new long[Long.SIZE];
+
+    // combinations[b] is the set of columns xoring to pivots[b]
+    private final long[] combinations = new long[Long.SIZE];
+
+    private final long[] kernel;
+
+    private XorSystem(long[] columns) {
+        this.columns = columns;
+        var kernel = new long[columns.length];
+        var nullity = 0;
+        for (int j = 0; j < columns.length; j++) {
+            var combination = 1L << j;
+            var vector = columns[j];
+            while (vector != 0) {
+                var bit = 63 - Long.numberOfLeadingZeros(vector);
+                if (pivots[bit] == 0) {
+                    pivots[bit] = vector;
+                    combinations[bit] = combination;
+                    break;
+                }
+                vector ^= pivots[bit];
+                combination ^= combinations[bit];
+            }
+            if (vector == 0) {
+                kernel[nullity++] = combination;
+            }
+        }
+        this.kernel = Arrays.copyOf(kernel, nullity);
+    }
+
+    public static XorSystem of(long... columns) {
+        if (columns.length > MAX_COLUMNS) {
+            throw new IllegalArgumentException("At most " + MAX_COLUMNS + " columns are supported");
+        }
+        return new XorSystem(columns.clone());
+    }
+
+    public int rank() {
+        return columns.length - kernel.length;
+    }
+
+    /**
+     * Dimension of the null space; every solvable target has {@code 2^nullity} solutions.
+     */
+    public int nullity() {
+        return kernel.length;
+    }
+
+    /**
+     * Some set of columns xoring to {@code target}, or empty if there is none.
+     */
+    public OptionalLong solve(long target) {
+        var combination = 0L;
+        while (target != 0) {
+            var bit = 63 - Long.numberOfLeadingZeros(target);
+            if (pivots[bit] == 0) {
+                return OptionalLong.empty();
+            }
+            target ^= pivots[bit];
+            combination ^= combinations[bit];
+        }
+        return OptionalLong.of(combination);
+    }
+
+    /**
+     * Smallest set of columns xoring to {@code target}, or empty if there is none. The cost is
+     * {@code O(2^min(nullity, columns / 2))}: the null space is walked in Gray code order, one
+     * xor per solution, unless it is larger than half the columns, in which case the two halves
+     * of the columns are enumerated separately and joined on their xor. Past {@value #MAX_HALF}
+     * columns per half the null space is always walked, and a null space of more than
+     * {@value #MAX_NULLITY} dimensions is then rejected with an {@link IllegalStateException}.
+     */
+    public OptionalLong minimum(long target) {
+        var particular = solve(target);
+        if (particular.isEmpty()) {
+            return particular;
+        }
+        if (2 * kernel.length > columns.length && columns.length / 2 <= MAX_HALF) {
+            return OptionalLong.of(meetInTheMiddle(target));
+        }
+        if (kernel.length > MAX_NULLITY) {
+            throw new IllegalStateException("Null space of dimension " + kernel.length + " is too large to search");
+        }
+        return OptionalLong.of(grayCode(particular.getAsLong()));
+    }
+
+    private long grayCode(long solution) {
+        var best = solution;
+        for (long code = 1; code < 1L << kernel.length; code++) {
+            solution ^= kernel[Long.numberOfTrailingZeros(code)];
+            if (Long.bitCount(solution) < Long.bitCount(best)) {
+                best = solution;
+            }
+        }
+        return best;
+    }
+
+    private long meetInTheMiddle(long target) {
+        var half = columns.length / 2;
+        var left = new Halves(half);
+        for (long subset = 0, xor = 0, code = 0; code < 1L << half; code++) {
+            if (code > 0) {
+                var j = Long.numberOfTrailingZeros(code);
+                subset ^= 1L << j;
+                xor ^= columns[j];
+            }
+            left.offer(xor, subset);
+        }
+        var best = -1L;
+        var right = columns.length - half;
+        for (long subset = 0, xor = 0, code = 0; code < 1L << right; code++) {
+            if (code > 0) {
+                var j = Long.numberOfTrailingZeros(code);
+                subset ^= 1L << (half + j);
+                xor ^= columns[half + j];
+            }
+            var match = left.get(xor ^ target);
+            if (match >= 0 && (best < 0 || Long.bitCount(match | subset) < Long.bitCount(best))) {
+                best = match | subset;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Open addressing map from the xor of a subset of columns to the smallest such subset.
+     */
+    private static class Halves {
+        private final long[] keys;
+
+        private final long[] subsets;
+
+        private final int mask;
+
+        Halves(int columns) {
+            var capacity = 2 << columns;
+            this.keys = new long[capacity];
+            this.subsets = new long[capacity];
+            Arrays.fill(subsets, -1L);
+            this.mask = capacity - 1;
+        }
+
+        void offer(long key, long subset) {
+            var slot = slot(key);
+            while (subsets[slot] >= 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (subsets[slot] < 0 || Long.bitCount(subset) < Long.bitCount(subsets[slot])) {
+                keys[slot] = key;
+                subsets[slot] = subset;
+            }
+        }
+
+        long get(long key) {
+            for (var slot = slot(key); subsets[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return subsets[slot];
+                }
+            }
+            return -1L;
+        }
+
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+}